@@ -61,6 +61,8 @@ android {
     }
     buildFeatures {
     }
+    // 基准测试用MockPackageManager模拟应用列表
+    useLibrary("android.test.mock")
 }
 
 val releaseApkRename by tasks.registering {
@@ -99,4 +101,7 @@ dependencies {
     // 卡片视图
     implementation(libs.cardview)
     implementation(libs.recyclerview)
+    testImplementation(libs.junit)
+    androidTestImplementation(libs.ext.junit)
+    androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.os.SystemClock;
+import android.test.mock.MockPackageManager;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 500个应用的模拟PackageManager上比较串行和并行解析，要求结果顺序与串行一致。
+ * 模拟的标签耗时不代表真实的getApplicationLabel，加速比只记录
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppCatalogBenchmark {
+
+  private static final String TAG = "AppCatalogBenchmark";
+  private static final int PACKAGES = 500;
+  // 模拟读取应用标签的耗时
+  private static final long LABEL_COST_MS = 1;
+
+  private final PackageManagerStub packageManager = new PackageManagerStub();
+  private List<PackageInfo> packages;
+  private ExecutorService pool;
+
+  /**
+   * 只实现解析用到的getApplicationLabel，每次调用耗时LABEL_COST_MS
+   */
+  private static final class PackageManagerStub extends MockPackageManager {
+    @Override
+    public CharSequence getApplicationLabel(ApplicationInfo info) {
+      SystemClock.sleep(LABEL_COST_MS);
+      return "App " + info.packageName;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    packages = new ArrayList<>(PACKAGES);
+    for (int i = 0; i < PACKAGES; i++) {
+      ApplicationInfo info = new ApplicationInfo();
+      info.packageName = "bench.app" + i;
+      info.sourceDir = "/data/app/bench.app" + i + "/base.apk";
+      PackageInfo packageInfo = new PackageInfo();
+      packageInfo.packageName = info.packageName;
+      packageInfo.applicationInfo = info;
+      packageInfo.lastUpdateTime = i;
+      packages.add(packageInfo);
+    }
+    pool = Executors.newFixedThreadPool(AppCatalog.RESOLVER_THREADS);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void parallelMatchesSerial() {
+    AppCatalog.Resolver<PackageInfo> resolver =
+        packageInfo -> AppCatalog.Entry.of(packageInfo, AppCatalog.loadLabel(packageManager, packageInfo), false);
+    // 预热线程池
+    AppCatalog.resolveAll(packages, resolver, pool, "预热");
+    long start = SystemClock.elapsedRealtime();
+    AppCatalog.Entry[] serial = AppCatalog.resolveAll(packages, resolver, null, "串行");
+    long serialMs = SystemClock.elapsedRealtime() - start;
+    start = SystemClock.elapsedRealtime();
+    AppCatalog.Entry[] parallel = AppCatalog.resolveAll(packages, resolver, pool, "并行");
+    long parallelMs = SystemClock.elapsedRealtime() - start;
+    Log.i(TAG, PACKAGES + " 个应用：串行 " + serialMs + "ms，并行(" + AppCatalog.RESOLVER_THREADS + " 线程) " +
+        parallelMs + "ms，加速比 " + String.format(Locale.ROOT, "%.2f", serialMs / (double) Math.max(1, parallelMs)));
+    assertEquals(PACKAGES, serial.length);
+    assertEquals(PACKAGES, parallel.length);
+    for (int i = 0; i < PACKAGES; i++) {
+      assertEquals(packages.get(i).packageName, serial[i].packageName);
+      assertEquals(serial[i].packageName, parallel[i].packageName);
+      assertEquals(serial[i].label, parallel[i].label);
+    }
+  }
+}
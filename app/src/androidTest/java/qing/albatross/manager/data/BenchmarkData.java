@@ -0,0 +1,96 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * 基准测试共用的数据：在独立的数据库文件中写入插件和规则，不触碰应用自身的plugins.db
+ */
+final class BenchmarkData {
+
+  static final String DATABASE_NAME = "benchmark_plugins.db";
+
+  private BenchmarkData() {
+  }
+
+  static PluginDatabaseHelper open(Context context) {
+    context.deleteDatabase(DATABASE_NAME);
+    return new PluginDatabaseHelper(context, DATABASE_NAME);
+  }
+
+  static void close(Context context, PluginDatabaseHelper helper) {
+    helper.close();
+    context.deleteDatabase(DATABASE_NAME);
+  }
+
+  static String pluginPackage(int index) {
+    return "bench.plugin" + index;
+  }
+
+  static String targetPackage(int index) {
+    return "bench.target" + index;
+  }
+
+  /**
+   * 写入plugins个插件，每个插件对rulesPerPlugin个连续的目标应用生效，
+   * plugins * rulesPerPlugin是targets的整数倍时每个目标应用被相同数量的插件引用
+   */
+  static void seed(SQLiteDatabase db, int plugins, int rulesPerPlugin, int targets) {
+    db.beginTransaction();
+    try (SQLiteStatement plugin = db.compileStatement("INSERT INTO " + PluginDatabaseHelper.TABLE_PLUGINS + " (" +
+        PluginDatabaseHelper.COLUMN_ID + ", " + PluginDatabaseHelper.COLUMN_NAME + ", " +
+        PluginDatabaseHelper.COLUMN_PACKAGE + ", " + PluginDatabaseHelper.COLUMN_CLASS + ") VALUES (?, ?, ?, ?)");
+         SQLiteStatement rule = db.compileStatement("INSERT INTO " + PluginRuleDatabaseHelper.TABLE_RULES + " (" +
+             PluginRuleDatabaseHelper.COLUMN_PLUGIN_ID + ", " + PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE +
+             ") VALUES (?, ?)")) {
+      for (int i = 1; i <= plugins; i++) {
+        plugin.bindLong(1, i);
+        plugin.bindString(2, "Plugin " + i);
+        plugin.bindString(3, pluginPackage(i));
+        plugin.bindString(4, "bench.plugin.Entry");
+        plugin.executeInsert();
+        rule.bindLong(1, i);
+        for (int j = 0; j < rulesPerPlugin; j++) {
+          rule.bindString(2, targetPackage((i * rulesPerPlugin + j) % targets));
+          rule.executeInsert();
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * 执行iterations次，返回每次耗时的中位数（微秒）
+   */
+  static long medianMicros(int iterations, Runnable body) {
+    long[] samples = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long start = SystemClock.elapsedRealtimeNanos();
+      body.run();
+      samples[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+    }
+    Arrays.sort(samples);
+    return samples[iterations / 2];
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 10k条规则下对比每次调用都打开/关闭数据库与长期持有WAL连接的查询延迟，
+ * 并检查写事务进行时读查询不会被阻塞
+ */
+@RunWith(AndroidJUnit4.class)
+public class PluginDatabaseBenchmark {
+
+  private static final String TAG = "PluginDatabaseBenchmark";
+  private static final int PLUGINS = 50;
+  private static final int RULES_PER_PLUGIN = 200;
+  private static final int TARGETS = 2000;
+  private static final int ITERATIONS = 200;
+  private static final String TARGETS_QUERY = "SELECT " + PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE +
+      " FROM " + PluginRuleDatabaseHelper.TABLE_RULES + " WHERE " + PluginRuleDatabaseHelper.COLUMN_PLUGIN_ID + " = ?";
+
+  private Context context;
+  private PluginDatabaseHelper helper;
+
+  @Before
+  public void setUp() {
+    context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    helper = BenchmarkData.open(context);
+    BenchmarkData.seed(helper.getWritableDatabase(), PLUGINS, RULES_PER_PLUGIN, TARGETS);
+  }
+
+  @After
+  public void tearDown() {
+    BenchmarkData.close(context, helper);
+  }
+
+  private static int countTargets(SQLiteDatabase db, int pluginId) {
+    try (Cursor cursor = db.rawQuery(TARGETS_QUERY, new String[]{String.valueOf(pluginId)})) {
+      int count = 0;
+      while (cursor.moveToNext()) {
+        cursor.getString(0);
+        count++;
+      }
+      return count;
+    }
+  }
+
+  @Test
+  public void queryLatencyOpenClosePerCallVsLongLived() {
+    String path = context.getDatabasePath(BenchmarkData.DATABASE_NAME).getPath();
+    int[] next = {0};
+    // 优化前：每次查询重新打开数据库文件，查询后关闭
+    long perCall = BenchmarkData.medianMicros(ITERATIONS, () -> {
+      SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE);
+      try {
+        assertEquals(RULES_PER_PLUGIN, countTargets(db, next[0]++ % PLUGINS + 1));
+      } finally {
+        db.close();
+      }
+    });
+    // 优化后：复用helper长期持有的连接
+    SQLiteDatabase db = helper.getReadableDatabase();
+    long longLived = BenchmarkData.medianMicros(ITERATIONS, () ->
+        assertEquals(RULES_PER_PLUGIN, countTargets(db, next[0]++ % PLUGINS + 1)));
+    // 耗时受设备调度影响，只记录不断言
+    Log.i(TAG, "规则 " + PLUGINS * RULES_PER_PLUGIN + " 条，查询中位数: 每次打开 " + perCall + "us，长连接 " + longLived + "us");
+  }
+
+  @Test
+  public void readsProceedDuringWriteTransaction() throws Exception {
+    assertTrue(helper.getWritableDatabase().isWriteAheadLoggingEnabled());
+    AtomicBoolean writing = new AtomicBoolean(true);
+    CountDownLatch began = new CountDownLatch(1);
+    AtomicInteger readsDuringWrite = new AtomicInteger();
+    Thread writer = new Thread(() -> {
+      SQLiteDatabase db = helper.getWritableDatabase();
+      db.beginTransaction();
+      began.countDown();
+      try {
+        // 持有写事务一段时间，期间主线程持续读
+        for (int i = 0; i < 2000; i++) {
+          db.execSQL("INSERT INTO " + PluginRuleDatabaseHelper.TABLE_RULES + " (" +
+              PluginRuleDatabaseHelper.COLUMN_PLUGIN_ID + ", " + PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE +
+              ") VALUES (1, ?)", new Object[]{"bench.writer" + i});
+        }
+        SystemClock.sleep(200);
+        db.setTransactionSuccessful();
+      } finally {
+        // 先清标志再提交：读者读完后标志仍为true，说明整个读取期间事务都未提交
+        writing.set(false);
+        db.endTransaction();
+      }
+    });
+    writer.start();
+    assertTrue(began.await(10, TimeUnit.SECONDS));
+    SQLiteDatabase db = helper.getReadableDatabase();
+    long maxMicros = 0;
+    while (writing.get()) {
+      long start = System.nanoTime();
+      int count = countTargets(db, 1);
+      long elapsed = (System.nanoTime() - start) / 1000;
+      if (!writing.get())
+        break;
+      // 未提交的写入对读者不可见
+      assertEquals(RULES_PER_PLUGIN, count);
+      maxMicros = Math.max(maxMicros, elapsed);
+      readsDuringWrite.incrementAndGet();
+    }
+    writer.join();
+    Log.i(TAG, "写事务期间完成读查询 " + readsDuringWrite.get() + " 次，最大延迟 " + maxMicros + "us");
+    assertTrue(readsDuringWrite.get() > 0);
+    assertEquals(RULES_PER_PLUGIN + 2000, countTargets(db, 1));
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1k和10k行插件的映射吞吐：逐行getColumnIndexOrThrow对比RowMapper，两者结果须一致；
+ * 以及按包名点查rawQuery对比复用的预编译语句。耗时只记录
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowMapperBenchmark {
+
+  private static final String TAG = "RowMapperBenchmark";
+  private static final int MAP_ITERATIONS = 21;
+  private static final int LOOKUP_ITERATIONS = 2000;
+
+  private Context context;
+  private PluginDatabaseHelper helper;
+
+  @Before
+  public void setUp() {
+    context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    helper = BenchmarkData.open(context);
+  }
+
+  @After
+  public void tearDown() {
+    BenchmarkData.close(context, helper);
+  }
+
+  @Test
+  public void mapOneThousandRows() {
+    compareMapping(1000);
+  }
+
+  @Test
+  public void mapTenThousandRows() {
+    compareMapping(10000);
+  }
+
+  @Test
+  public void compiledPointLookup() {
+    int rows = 1000;
+    SQLiteDatabase db = helper.getWritableDatabase();
+    BenchmarkData.seed(db, rows, 0, 1);
+    String sql = "SELECT " + PluginDatabaseHelper.COLUMN_CLASS + " FROM " + PluginDatabaseHelper.TABLE_PLUGINS +
+        " WHERE " + PluginDatabaseHelper.COLUMN_PACKAGE + " = ?";
+    int[] next = {1};
+    long raw = BenchmarkData.medianMicros(LOOKUP_ITERATIONS, () -> {
+      try (Cursor cursor = db.rawQuery(sql, new String[]{BenchmarkData.pluginPackage(next[0]++ % rows + 1)})) {
+        assertTrue(cursor.moveToFirst());
+        cursor.getString(0);
+      }
+    });
+    try (SQLiteStatement statement = db.compileStatement(sql)) {
+      long compiled = BenchmarkData.medianMicros(LOOKUP_ITERATIONS, () -> {
+        statement.bindString(1, BenchmarkData.pluginPackage(next[0]++ % rows + 1));
+        assertEquals("bench.plugin.Entry", statement.simpleQueryForString());
+      });
+      // 差距只有几微秒，受JIT、GC和调频影响，只记录
+      Log.i(TAG, "点查中位数 rawQuery " + raw + "us，预编译语句 " + compiled + "us");
+    }
+  }
+
+  private void compareMapping(int rows) {
+    SQLiteDatabase db = helper.getWritableDatabase();
+    BenchmarkData.seed(db, rows, 0, 1);
+    // 两种映射结果必须逐行一致，同时作为预热
+    List<Plugin> expected = queryLegacy(db);
+    List<Plugin> actual = queryMapper(db);
+    assertEquals(rows, expected.size());
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSamePlugin(expected.get(i), actual.get(i));
+    }
+    long legacy = BenchmarkData.medianMicros(MAP_ITERATIONS, () -> queryLegacy(db));
+    long mapper = BenchmarkData.medianMicros(MAP_ITERATIONS, () -> queryMapper(db));
+    // 耗时受设备调度影响，只记录不断言
+    Log.i(TAG, rows + " 行：逐行解析列索引 " + legacy + "us（" + rowsPerSecond(rows, legacy) + " 行/秒），RowMapper " +
+        mapper + "us（" + rowsPerSecond(rows, mapper) + " 行/秒）");
+  }
+
+  private static void assertSamePlugin(Plugin expected, Plugin actual) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getName(), actual.getName());
+    assertEquals(expected.getPackageName(), actual.getPackageName());
+    assertEquals(expected.getClassName(), actual.getClassName());
+    assertEquals(expected.getDescription(), actual.getDescription());
+    assertEquals(expected.getAuthor(), actual.getAuthor());
+    assertEquals(expected.getAppVersion(), actual.getAppVersion());
+    assertEquals(expected.isEnabled(), actual.isEnabled());
+    assertEquals(expected.getParams(), actual.getParams());
+    assertEquals(expected.getFlags(), actual.getFlags());
+    assertEquals(expected.getSupportedApps(), actual.getSupportedApps());
+  }
+
+  private static long rowsPerSecond(int rows, long micros) {
+    return micros == 0 ? rows * 1000000L : rows * 1000000L / micros;
+  }
+
+  private static List<Plugin> queryMapper(SQLiteDatabase db) {
+    try (Cursor cursor = db.query(PluginDatabaseHelper.TABLE_PLUGINS, PluginDatabaseHelper.PLUGIN_MAPPER.projection(),
+        null, null, null, null, null)) {
+      return PluginDatabaseHelper.PLUGIN_MAPPER.mapAll(cursor);
+    }
+  }
+
+  /**
+   * 引入RowMapper之前的写法：查询全部列，每行每列调用getColumnIndexOrThrow
+   */
+  private static List<Plugin> queryLegacy(SQLiteDatabase db) {
+    List<Plugin> plugins = new ArrayList<>();
+    try (Cursor cursor = db.query(PluginDatabaseHelper.TABLE_PLUGINS, null, null, null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        Plugin plugin = new Plugin();
+        plugin.setId(cursor.getLong(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_ID)));
+        plugin.setName(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_NAME)));
+        plugin.setPackageName(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_PACKAGE)));
+        plugin.setClassName(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_CLASS)));
+        plugin.setDescription(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_DESCRIPTION)));
+        plugin.setAuthor(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_AUTHOR)));
+        plugin.setAppVersion(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_APP_VERSION)));
+        plugin.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_ENABLED)) == 1);
+        plugin.setParams(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_PARAM1)));
+        plugin.setFlags(cursor.getInt(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_PARAM2)));
+        plugin.setSupportApps(cursor.getString(cursor.getColumnIndexOrThrow(PluginDatabaseHelper.COLUMN_SUPPORTED_APPS)));
+        plugins.add(plugin);
+      }
+    }
+    return plugins;
+  }
+}
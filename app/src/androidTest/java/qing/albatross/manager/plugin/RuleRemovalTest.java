@@ -0,0 +1,96 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import qing.albatross.manager.data.PackageUids;
+
+/**
+ * 目标应用卸载后，规则按卸载广播记下的uid从服务端删除，ServerState镜像随之清空
+ */
+@RunWith(AndroidJUnit4.class)
+public class RuleRemovalTest {
+
+  private static final String REMOVED_PACKAGE = "test.removed.target";
+  private static final int REMOVED_UID = 10999;
+  private static final int PLUGIN_ID = 1;
+
+  private final List<int[]> deleted = new ArrayList<>();
+  private PackageUids uids;
+  private PluginDelegate delegate;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    uids = PackageUids.getInstance(context);
+    delegate = new PluginDelegate();
+    delegate.rules = new RuleChannel() {
+      @Override
+      public byte addPluginRule(int pluginId, int uid) {
+        return 0;
+      }
+
+      @Override
+      public boolean deletePluginRule(int pluginId, int uid) {
+        deleted.add(new int[]{pluginId, uid});
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    delegate.state.putRegistration(PLUGIN_ID, new ServerState.Registration("/data/app/plugin.apk",
+        "test.Plugin", null, 0));
+    delegate.state.addRule(PLUGIN_ID, REMOVED_PACKAGE);
+    delegate.state.markKnown();
+  }
+
+  @Test
+  public void removedTargetIsDeletedByLastUid() {
+    // 包不存在，只能从卸载广播得到uid
+    assertEquals(PackageUids.UNKNOWN_UID, uids.getUid(REMOVED_PACKAGE));
+    uids.onPackageRemoved(REMOVED_PACKAGE, REMOVED_UID);
+    assertEquals(REMOVED_UID, uids.getUid(REMOVED_PACKAGE));
+
+    int count = delegate.deletePluginRules(PLUGIN_ID, uids.resolve(Collections.singleton(REMOVED_PACKAGE)));
+
+    assertEquals(1, count);
+    assertEquals(1, deleted.size());
+    assertEquals(PLUGIN_ID, deleted.get(0)[0]);
+    assertEquals(REMOVED_UID, deleted.get(0)[1]);
+    assertFalse(delegate.state.hasRule(PLUGIN_ID, REMOVED_PACKAGE));
+    assertTrue(delegate.state.getTargets(PLUGIN_ID).isEmpty());
+    // 镜像已知且规则已删除，再次同步不会重复删除
+    assertTrue(delegate.state.isKnown());
+  }
+}
@@ -2,11 +2,15 @@ package qing.albatross.manager;
 
 import android.app.Application;
 
+import qing.albatross.manager.data.AppCatalog;
+
 public class AlbatrossApplication extends Application {
 
 
   @Override
   public void onCreate() {
     super.onCreate();
+    // 尽早开始监听应用安装/卸载，扫描推迟到首次读取
+    AppCatalog.getInstance(this);
   }
 }
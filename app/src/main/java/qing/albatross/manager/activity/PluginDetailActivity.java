@@ -172,13 +172,6 @@ public class PluginDetailActivity extends AppCompatActivity {
     return super.onOptionsItemSelected(item);
   }
 
-  @Override
-  protected void onDestroy() {
-    super.onDestroy();
-    pluginDb.close();
-    ruleDb.close();
-  }
-
   public Plugin getCurrentPlugin() {
     return currentPlugin;
   }
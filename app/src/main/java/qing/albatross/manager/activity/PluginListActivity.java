@@ -15,16 +15,6 @@
  */
 package qing.albatross.manager.activity;
 
-import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_AUTHOR;
-import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_CLASS;
-import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_DESCRIPTION;
-import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_KEY;
-import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_NAME;
-import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_SUPPORT_APPS;
-
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -54,6 +44,7 @@ import java.util.concurrent.Executors;
 
 import qing.albatross.manager.R;
 import qing.albatross.manager.adapter.PluginListAdapter;
+import qing.albatross.manager.data.AppCatalog;
 import qing.albatross.manager.data.Plugin;
 import qing.albatross.manager.data.PluginDatabaseHelper;
 import qing.albatross.manager.model.AppInfo;
@@ -174,16 +165,13 @@ public class PluginListActivity extends AppCompatActivity {
     emptyStateContainer.setVisibility(View.GONE);
 
     executor.execute(() -> {
-      // 获取所有已安装的应用
-      List<PackageInfo> packages = getPackageManager().getInstalledPackages(PackageManager.GET_META_DATA);
+      // 从应用目录获取插件应用
+      List<AppCatalog.Entry> plugins = AppCatalog.getInstance(this).getApps(AppCatalog.Filter.PLUGIN);
       allApps.clear();
-      for (PackageInfo pkg : packages) {
+      for (AppCatalog.Entry entry : plugins) {
         // 过滤系统应用
-        if ((pkg.applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0) {
-          AppInfo appInfo = createAppInfo(pkg);
-          if (appInfo != null)
-            allApps.add(appInfo);
-        }
+        if (!entry.isSystem())
+          allApps.add(createAppInfo(entry));
       }
       // 在主线程更新UI
       handler.post(() -> {
@@ -203,35 +191,9 @@ public class PluginListActivity extends AppCompatActivity {
   /**
    * 创建应用信息对象
    */
-  private AppInfo createAppInfo(PackageInfo pkg) {
-    boolean isPlugin = false;
-    ApplicationInfo applicationInfo = pkg.applicationInfo;
-    Bundle metaData = applicationInfo.metaData;
-    try {
-      if (metaData != null) {
-        isPlugin = metaData.getBoolean(ALBATROSS_PLUGIN_KEY, false);
-      }
-    } catch (Exception e) {
-      // 忽略异常
-    }
-    if (!isPlugin) {
-      return null;
-    }
-    AppInfo appInfo = new AppInfo();
-    appInfo.setPackageName(pkg.packageName);
-    appInfo.metaData = metaData;
-    // 获取应用名称
-    try {
-      appInfo.setAppName(getPackageManager().getApplicationLabel(applicationInfo).toString());
-    } catch (Exception e) {
-      appInfo.setAppName(pkg.packageName);
-    }
-    appInfo.setAppIcon(applicationInfo.loadIcon(getPackageManager()));
-    appInfo.sourceDex = applicationInfo.sourceDir;
-    // 获取应用版本
-    appInfo.setVersionName(pkg.versionName);
-    appInfo.setPlugin(isPlugin);
-    Plugin existingPlugin = pluginDb.getPluginByPackage(pkg.packageName);
+  private AppInfo createAppInfo(AppCatalog.Entry entry) {
+    AppInfo appInfo = new AppInfo(entry);
+    Plugin existingPlugin = pluginDb.getPluginByPackage(entry.packageName);
     appInfo.setAdded(existingPlugin != null);
     return appInfo;
   }
@@ -247,16 +209,15 @@ public class PluginListActivity extends AppCompatActivity {
           Plugin plugin = new Plugin();
           plugin.setPackageName(a.getPackageName());
           // 从meta-data获取插件名称，默认为应用名称
-          Bundle metaData = a.metaData;
-          if (metaData != null) {
-            String pluginName = metaData.getString(ALBATROSS_PLUGIN_NAME);
+          AppCatalog.Entry entry = a.getEntry();
+          if (entry != null) {
+            String pluginName = entry.pluginName;
             plugin.setName(pluginName != null ? pluginName : a.getAppName());
             // 从meta-data获取其他信息
-            String className = metaData.getString(ALBATROSS_PLUGIN_CLASS, "unknown");
-            plugin.setClassName(className);
-            plugin.setDescription(metaData.getString(ALBATROSS_PLUGIN_DESCRIPTION, getString(R.string.no_description)));
-            plugin.setAuthor(metaData.getString(ALBATROSS_PLUGIN_AUTHOR, getString(R.string.unknown)));
-            plugin.setSupportApps(metaData.getString(ALBATROSS_PLUGIN_SUPPORT_APPS, ""));
+            plugin.setClassName(orDefault(entry.pluginClass, "unknown"));
+            plugin.setDescription(orDefault(entry.pluginDescription, getString(R.string.no_description)));
+            plugin.setAuthor(orDefault(entry.pluginAuthor, getString(R.string.unknown)));
+            plugin.setSupportApps(orDefault(entry.pluginSupportApps, ""));
             plugin.setEnabled(true);
             long result = pluginDb.addPlugin(plugin);
             if (result != -1) {
@@ -287,6 +248,10 @@ public class PluginListActivity extends AppCompatActivity {
     });
   }
 
+  private static String orDefault(String value, String defaultValue) {
+    return value != null ? value : defaultValue;
+  }
+
   @Override
   protected void onDestroy() {
     super.onDestroy();
@@ -27,7 +27,8 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.util.List;
 
 import qing.albatross.manager.R;
-import qing.albatross.manager.data.AppInfo;
+import qing.albatross.manager.model.AppInfo;
+import qing.albatross.manager.utils.IconLoader;
 
 public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewHolder> {
     private List<AppInfo> appList;
@@ -56,6 +57,12 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
         holder.bind(app);
     }
 
+    @Override
+    public void onViewRecycled(@NonNull AppViewHolder holder) {
+        super.onViewRecycled(holder);
+        IconLoader.getInstance(holder.itemView.getContext()).cancel(holder.ivAppIcon);
+    }
+
     @Override
     public int getItemCount() {
         return appList.size();
@@ -87,13 +94,13 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
         }
 
         public void bind(AppInfo app) {
-            ivAppIcon.setImageDrawable(app.getIcon());
+            IconLoader.getInstance(itemView.getContext()).load(ivAppIcon, app);
             tvAppName.setText(app.getAppName());
             tvPackageName.setText(app.getPackageName());
             tvVersion.setText("v" + app.getVersionName() + " (" + app.getVersionCode() + ")");
             
             // 显示系统应用标签
-            if (app.isSystemApp()) {
+            if (app.isSystem) {
                 tvSystemTag.setVisibility(View.VISIBLE);
                 tvSystemTag.setText("系统应用");
             } else {
@@ -35,6 +35,7 @@ import java.util.List;
 
 import qing.albatross.manager.R;
 import qing.albatross.manager.model.AppInfo;
+import qing.albatross.manager.utils.IconLoader;
 
 /**
  * 应用选择适配器，用于选择插件生效的应用
@@ -82,7 +83,7 @@ public class AppSelectAdapter extends RecyclerView.Adapter<AppSelectAdapter.View
     AppInfo appInfo = appList.get(position);
     if (appInfo == null) return;
 
-    holder.ivIcon.setImageDrawable(appInfo.getAppIcon());
+    IconLoader.getInstance(holder.itemView.getContext()).load(holder.ivIcon, appInfo);
     holder.tvName.setText(appInfo.getAppName());
     holder.tvPackage.setText(appInfo.getPackageName());
     CheckBox cbSelect = holder.cbSelect;
@@ -129,6 +130,12 @@ public class AppSelectAdapter extends RecyclerView.Adapter<AppSelectAdapter.View
     });
   }
 
+  @Override
+  public void onViewRecycled(@NonNull ViewHolder holder) {
+    super.onViewRecycled(holder);
+    IconLoader.getInstance(holder.itemView.getContext()).cancel(holder.ivIcon);
+  }
+
   @Override
   public int getItemCount() {
     return appList == null ? 0 : appList.size();
@@ -24,6 +24,7 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import qing.albatross.manager.R;
@@ -56,10 +57,44 @@ public class PluginAdapter extends RecyclerView.Adapter<PluginAdapter.PluginView
   }
 
   public void setPlugins(List<Plugin> plugins) {
-    this.plugins = plugins;
+    this.plugins = new ArrayList<>(plugins);
     notifyDataSetChanged();
   }
 
+  /**
+   * 更新或追加一个插件，只刷新对应的行
+   */
+  public void upsertPlugin(Plugin plugin) {
+    if (plugins == null)
+      plugins = new ArrayList<>();
+    int index = indexOf(plugin.getPackageName());
+    if (index >= 0) {
+      plugins.set(index, plugin);
+      notifyItemChanged(index);
+    } else {
+      plugins.add(plugin);
+      notifyItemInserted(plugins.size() - 1);
+    }
+  }
+
+  public void removePlugin(String packageName) {
+    int index = indexOf(packageName);
+    if (index >= 0) {
+      plugins.remove(index);
+      notifyItemRemoved(index);
+    }
+  }
+
+  private int indexOf(String packageName) {
+    if (plugins == null)
+      return -1;
+    for (int i = 0; i < plugins.size(); i++) {
+      if (plugins.get(i).getPackageName().equals(packageName))
+        return i;
+    }
+    return -1;
+  }
+
   @NonNull
   @Override
   public PluginViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -36,6 +36,7 @@ import java.util.Set;
 
 import qing.albatross.manager.R;
 import qing.albatross.manager.model.AppInfo;
+import qing.albatross.manager.utils.IconLoader;
 
 public class PluginListAdapter extends RecyclerView.Adapter<PluginListAdapter.AppViewHolder> {
 
@@ -96,7 +97,7 @@ public class PluginListAdapter extends RecyclerView.Adapter<PluginListAdapter.Ap
     if (appInfo == null) return;
 
     // 设置应用图标和名称
-    holder.ivAppIcon.setImageDrawable(appInfo.getAppIcon());
+    IconLoader.getInstance(context).load(holder.ivAppIcon, appInfo);
     holder.tvAppName.setText(appInfo.getAppName());
 
     // 设置包名和版本
@@ -136,6 +137,12 @@ public class PluginListAdapter extends RecyclerView.Adapter<PluginListAdapter.Ap
     }
   }
 
+  @Override
+  public void onViewRecycled(@NonNull AppViewHolder holder) {
+    super.onViewRecycled(holder);
+    IconLoader.getInstance(context).cancel(holder.ivAppIcon);
+  }
+
   @Override
   public int getItemCount() {
     return appList == null ? 0 : appList.size();
@@ -0,0 +1,588 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_AUTHOR;
+import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_CLASS;
+import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_DESCRIPTION;
+import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_KEY;
+import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_NAME;
+import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_SUPPORT_APPS;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import qing.albatross.manager.plugin.AsyncPluginDelegate;
+
+/**
+ * 进程内共享的已安装应用目录：只枚举一次PackageManager并解析应用名，
+ * 各页面从同一个不可变快照中按条件取列表，不再各自扫描。
+ * 首次读取会阻塞扫描（有磁盘快照时直接使用快照），不要在主线程调用。之后由应用安装/卸载/更新广播逐个更新条目，
+ * 并清理已卸载目标应用的规则、在插件apk变化时重新注册该插件。
+ */
+public final class AppCatalog {
+
+  private static final String TAG = "AppCatalog";
+  // 应用名需要加载各应用的资源，按核心数并行解析，上限4个线程，避免占满binder线程
+  static final int RESOLVER_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  // 少于此数量时串行解析，省去分发开销
+  private static final int PARALLEL_THRESHOLD = 32;
+
+  public enum Filter {
+    ALL,
+    // 非系统应用
+    USER,
+    SYSTEM,
+    // 声明了albatross_plugin的应用
+    PLUGIN,
+    // 有桌面入口的应用
+    LAUNCHABLE
+  }
+
+  /**
+   * 单个应用的不可变信息
+   */
+  public static final class Entry {
+    public final String packageName;
+    public final String label;
+    public final String versionName;
+    public final int versionCode;
+    public final int flags;
+    // 卸载后仍需按uid删除服务端规则
+    public final int uid;
+    public final String sourceDir;
+    public final long firstInstallTime;
+    public final long lastUpdateTime;
+    public final boolean launchable;
+    public final boolean plugin;
+    // 插件meta-data，非插件时为null
+    public final String pluginName;
+    public final String pluginClass;
+    public final String pluginDescription;
+    public final String pluginAuthor;
+    public final String pluginSupportApps;
+
+    Entry(String packageName, String label, String versionName, int versionCode, int flags, int uid, String sourceDir,
+          long firstInstallTime, long lastUpdateTime, boolean launchable, boolean plugin, String pluginName,
+          String pluginClass, String pluginDescription, String pluginAuthor, String pluginSupportApps) {
+      this.packageName = packageName;
+      this.label = label;
+      this.versionName = versionName;
+      this.versionCode = versionCode;
+      this.flags = flags;
+      this.uid = uid;
+      this.sourceDir = sourceDir;
+      this.firstInstallTime = firstInstallTime;
+      this.lastUpdateTime = lastUpdateTime;
+      this.launchable = launchable;
+      this.plugin = plugin;
+      this.pluginName = pluginName;
+      this.pluginClass = pluginClass;
+      this.pluginDescription = pluginDescription;
+      this.pluginAuthor = pluginAuthor;
+      this.pluginSupportApps = pluginSupportApps;
+    }
+
+    static Entry of(PackageInfo packageInfo, String label, boolean launchable) {
+      ApplicationInfo info = packageInfo.applicationInfo;
+      Bundle metaData = info.metaData;
+      boolean isPlugin = false;
+      try {
+        isPlugin = metaData != null && metaData.getBoolean(ALBATROSS_PLUGIN_KEY, false);
+      } catch (Exception e) {
+        // 忽略异常
+      }
+      return new Entry(packageInfo.packageName, label, packageInfo.versionName, packageInfo.versionCode, info.flags,
+          info.uid, info.sourceDir, packageInfo.firstInstallTime, packageInfo.lastUpdateTime, launchable, isPlugin,
+          isPlugin ? metaData.getString(ALBATROSS_PLUGIN_NAME) : null,
+          isPlugin ? metaData.getString(ALBATROSS_PLUGIN_CLASS) : null,
+          isPlugin ? metaData.getString(ALBATROSS_PLUGIN_DESCRIPTION) : null,
+          isPlugin ? metaData.getString(ALBATROSS_PLUGIN_AUTHOR) : null,
+          isPlugin ? metaData.getString(ALBATROSS_PLUGIN_SUPPORT_APPS) : null);
+    }
+
+    Entry withLaunchable(boolean launchable) {
+      return new Entry(packageName, label, versionName, versionCode, flags, uid, sourceDir, firstInstallTime,
+          lastUpdateTime, launchable, plugin, pluginName, pluginClass, pluginDescription, pluginAuthor,
+          pluginSupportApps);
+    }
+
+    public boolean isSystem() {
+      return (flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+    }
+  }
+
+  /**
+   * 一次扫描的结果，各过滤列表在构建时一并生成
+   */
+  private static final class Snapshot {
+    final Map<String, Entry> byPackage;
+    final Map<Filter, List<Entry>> views = new EnumMap<>(Filter.class);
+
+    Snapshot(List<Entry> entries) {
+      Map<String, Entry> map = new HashMap<>(entries.size() * 2);
+      Map<Filter, List<Entry>> lists = new EnumMap<>(Filter.class);
+      for (Filter filter : Filter.values()) {
+        lists.put(filter, new ArrayList<>());
+      }
+      for (Entry entry : entries) {
+        map.put(entry.packageName, entry);
+        lists.get(Filter.ALL).add(entry);
+        lists.get(entry.isSystem() ? Filter.SYSTEM : Filter.USER).add(entry);
+        if (entry.plugin)
+          lists.get(Filter.PLUGIN).add(entry);
+        if (entry.launchable)
+          lists.get(Filter.LAUNCHABLE).add(entry);
+      }
+      this.byPackage = Collections.unmodifiableMap(map);
+      for (Map.Entry<Filter, List<Entry>> view : lists.entrySet()) {
+        views.put(view.getKey(), Collections.unmodifiableList(view.getValue()));
+      }
+    }
+
+    /**
+     * 替换、追加或删除（entry为null）一个应用后的新快照
+     */
+    Snapshot with(String packageName, Entry entry) {
+      List<Entry> all = views.get(Filter.ALL);
+      List<Entry> entries = new ArrayList<>(all.size() + 1);
+      boolean replaced = false;
+      for (Entry old : all) {
+        if (old.packageName.equals(packageName)) {
+          replaced = true;
+          if (entry != null)
+            entries.add(entry);
+        } else {
+          entries.add(old);
+        }
+      }
+      if (!replaced && entry != null)
+        entries.add(entry);
+      return new Snapshot(entries);
+    }
+  }
+
+  /**
+   * 目录内容变化回调，在后台线程调用
+   */
+  public interface Listener {
+    void onCatalogChanged();
+  }
+
+  private static AppCatalog instance;
+
+  private final Context context;
+  private final PackageManager packageManager;
+  private final AppCatalogStore store;
+  private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+  private volatile Snapshot snapshot;
+  // 广播在主线程到达，查询和规则清理放到后台按顺序执行
+  private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "app-catalog");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final ExecutorService resolvers = Executors.newFixedThreadPool(RESOLVER_THREADS, r -> {
+    Thread thread = new Thread(r, "app-catalog-resolver");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  interface Resolver<T> {
+    Entry resolve(T item) throws Exception;
+  }
+
+  private AppCatalog(Context context) {
+    this.context = context;
+    packageManager = context.getPackageManager();
+    store = new AppCatalogStore(context.getFilesDir());
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+    filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+    filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+    filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+    filter.addDataScheme("package");
+    context.registerReceiver(new BroadcastReceiver() {
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        Uri data = intent.getData();
+        if (data == null)
+          return;
+        String packageName = data.getSchemeSpecificPart();
+        String action = intent.getAction();
+        boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+        int uid = intent.getIntExtra(Intent.EXTRA_UID, PackageUids.UNKNOWN_UID);
+        worker.execute(() -> onPackageChanged(action, packageName, replacing, uid));
+      }
+    }, filter);
+  }
+
+  public static synchronized AppCatalog getInstance(Context context) {
+    if (instance == null) {
+      instance = new AppCatalog(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * 获取符合条件的应用，返回不可变列表
+   */
+  public List<Entry> getApps(Filter filter) {
+    return snapshot().views.get(filter);
+  }
+
+  /**
+   * @return 应用信息，未安装时返回null
+   */
+  public Entry get(String packageName) {
+    return snapshot().byPackage.get(packageName);
+  }
+
+  public void addListener(Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * 丢弃当前快照并重新扫描
+   */
+  public void refresh() {
+    synchronized (this) {
+      snapshot = scan();
+    }
+    onSnapshotChanged();
+  }
+
+  private void onSnapshotChanged() {
+    worker.execute(() -> {
+      Snapshot current = snapshot;
+      if (current != null)
+        store.write(Locale.getDefault().toString(), current.views.get(Filter.ALL));
+    });
+    for (Listener listener : listeners) {
+      listener.onCatalogChanged();
+    }
+  }
+
+  /**
+   * 只更新变化的应用。覆盖安装时先后收到REMOVED(replacing)、ADDED(replacing)和REPLACED，只处理REPLACED
+   */
+  private void onPackageChanged(String action, String packageName, boolean replacing, int uid) {
+    try {
+      if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+        if (replacing)
+          return;
+        Entry old = update(packageName, null);
+        Log.i(TAG, "应用已卸载: " + packageName);
+        pruneRules(packageName, uid != PackageUids.UNKNOWN_UID || old == null ? uid : old.uid);
+        if (old == null || old.plugin)
+          syncPlugin(packageName);
+        return;
+      }
+      if (Intent.ACTION_PACKAGE_ADDED.equals(action)) {
+        PackageUids.getInstance(context).onPackageAdded(packageName, uid);
+        if (replacing)
+          return;
+      }
+      Entry entry;
+      try {
+        PackageInfo packageInfo = packageManager.getPackageInfo(packageName, PackageManager.GET_META_DATA);
+        entry = Entry.of(packageInfo, loadLabel(packageManager, packageInfo), isLaunchable(packageName));
+      } catch (PackageManager.NameNotFoundException e) {
+        entry = null;
+      }
+      Entry old = update(packageName, entry);
+      if (entry != null && (old == null || entry.sourceDir == null || !entry.sourceDir.equals(old.sourceDir)))
+        syncPlugin(packageName);
+    } catch (Exception e) {
+      Log.e(TAG, "处理应用变化失败: " + packageName, e);
+    }
+  }
+
+  /**
+   * 替换快照中的一个应用，快照尚未加载时不处理，首次读取会完整扫描
+   *
+   * @return 原来的条目
+   */
+  private Entry update(String packageName, Entry entry) {
+    Snapshot current;
+    synchronized (this) {
+      current = snapshot;
+      if (current == null)
+        return null;
+      snapshot = current.with(packageName, entry);
+    }
+    onSnapshotChanged();
+    return current.byPackage.get(packageName);
+  }
+
+  private boolean isLaunchable(String packageName) {
+    Intent intent = new Intent(Intent.ACTION_MAIN);
+    intent.addCategory(Intent.CATEGORY_LAUNCHER);
+    intent.setPackage(packageName);
+    return !packageManager.queryIntentActivities(intent, 0).isEmpty();
+  }
+
+  /**
+   * 目标应用卸载后删除指向它的规则，删除会同步推送到服务端。
+   * 包已不存在，先记下它的uid，服务端按uid删除
+   */
+  private void pruneRules(String packageName, int uid) {
+    PackageUids.getInstance(context).onPackageRemoved(packageName, uid);
+    PluginRuleDatabaseHelper ruleDb = PluginRuleDatabaseHelper.getInstance(context);
+    for (Plugin plugin : ruleDb.getPluginsForTarget(packageName)) {
+      ruleDb.removeRule(plugin, packageName);
+    }
+  }
+
+  /**
+   * 插件apk路径变化或被卸载时只重新同步该插件
+   */
+  private void syncPlugin(String packageName) {
+    Plugin plugin = PluginDatabaseHelper.getInstance(context).getPluginByPackage(packageName);
+    if (plugin != null)
+      AsyncPluginDelegate.syncPlugin(context, plugin);
+  }
+
+  /**
+   * 首次读取优先使用磁盘快照并在后台校验，没有可用快照时完整扫描
+   */
+  private Snapshot snapshot() {
+    Snapshot current = snapshot;
+    if (current != null)
+      return current;
+    boolean scanned = false;
+    synchronized (this) {
+      if (snapshot == null) {
+        List<Entry> cached = store.read(Locale.getDefault().toString());
+        if (cached != null) {
+          Snapshot restored = new Snapshot(cached);
+          snapshot = restored;
+          Log.i(TAG, "从磁盘快照恢复 " + cached.size() + " 个应用");
+          worker.execute(() -> validate(restored));
+        } else {
+          snapshot = scan();
+          scanned = true;
+        }
+      }
+      current = snapshot;
+    }
+    if (scanned)
+      onSnapshotChanged();
+    return current;
+  }
+
+  /**
+   * 按lastUpdateTime校验磁盘快照，只重新解析有变化的应用
+   */
+  private void validate(Snapshot restored) {
+    long start = SystemClock.elapsedRealtime();
+    Set<String> launchable = queryLaunchable();
+    List<PackageInfo> packages = packageManager.getInstalledPackages(0);
+    Entry[] slots = new Entry[packages.size()];
+    List<Integer> staleIndexes = new ArrayList<>();
+    List<String> stale = new ArrayList<>();
+    int changed = 0;
+    for (int i = 0; i < slots.length; i++) {
+      PackageInfo packageInfo = packages.get(i);
+      if (packageInfo.applicationInfo == null)
+        continue;
+      String packageName = packageInfo.packageName;
+      boolean isLaunchable = launchable.contains(packageName);
+      Entry old = restored.byPackage.get(packageName);
+      if (old != null && old.lastUpdateTime == packageInfo.lastUpdateTime) {
+        if (old.launchable != isLaunchable) {
+          old = old.withLaunchable(isLaunchable);
+          changed++;
+        }
+        slots[i] = old;
+        continue;
+      }
+      staleIndexes.add(i);
+      stale.add(packageName);
+    }
+    // 只重新解析有变化的包，结果按原下标放回
+    Entry[] resolved = resolveAll(stale, packageName -> {
+      PackageInfo full;
+      try {
+        full = packageManager.getPackageInfo(packageName, PackageManager.GET_META_DATA);
+      } catch (PackageManager.NameNotFoundException ignore) {
+        // 校验过程中被卸载
+        return null;
+      }
+      return Entry.of(full, loadLabel(packageManager, full), launchable.contains(packageName));
+    }, resolvers, "校验");
+    for (int i = 0; i < resolved.length; i++) {
+      if (resolved[i] != null) {
+        slots[staleIndexes.get(i)] = resolved[i];
+        changed++;
+      }
+    }
+    List<Entry> entries = compact(slots);
+    Set<String> present = new HashSet<>();
+    for (Entry entry : entries) {
+      present.add(entry.packageName);
+    }
+    int removed = 0;
+    for (Entry old : restored.byPackage.values()) {
+      if (present.contains(old.packageName))
+        continue;
+      // 应用不在运行期间被卸载，没有收到广播，与onPackageChanged一样清理规则并同步插件
+      removed++;
+      pruneRules(old.packageName, old.uid);
+      if (old.plugin)
+        syncPlugin(old.packageName);
+    }
+    Log.i(TAG, "校验磁盘快照: 变化 " + changed + " 个，移除 " + removed + " 个，耗时 " +
+        (SystemClock.elapsedRealtime() - start) + "ms");
+    if (changed == 0 && removed == 0)
+      return;
+    synchronized (this) {
+      // 期间已被refresh替换时放弃
+      if (snapshot != restored)
+        return;
+      snapshot = new Snapshot(entries);
+    }
+    onSnapshotChanged();
+  }
+
+  private Set<String> queryLaunchable() {
+    Intent intent = new Intent(Intent.ACTION_MAIN);
+    intent.addCategory(Intent.CATEGORY_LAUNCHER);
+    Set<String> launchable = new HashSet<>();
+    for (ResolveInfo resolveInfo : packageManager.queryIntentActivities(intent, 0)) {
+      launchable.add(resolveInfo.activityInfo.packageName);
+    }
+    return launchable;
+  }
+
+  private Snapshot scan() {
+    long start = SystemClock.elapsedRealtime();
+    Set<String> launchable = queryLaunchable();
+    List<PackageInfo> packages = packageManager.getInstalledPackages(PackageManager.GET_META_DATA);
+    List<Entry> entries = compact(resolveAll(packages, packageInfo -> packageInfo.applicationInfo == null ? null :
+        Entry.of(packageInfo, loadLabel(packageManager, packageInfo), launchable.contains(packageInfo.packageName)), resolvers, "扫描"));
+    Log.i(TAG, "扫描 " + entries.size() + " 个应用，耗时 " + (SystemClock.elapsedRealtime() - start) + "ms");
+    return new Snapshot(entries);
+  }
+
+  /**
+   * 把items切成连续分片交给pool解析，每个分片写入自己的数组，全部正常完成后按输入下标合并，与串行解析的顺序一致。
+   * 单个条目解析失败或返回null时对应位置为null。pool为null或不可用时串行解析，
+   * 被中断时已在运行的分片不会停下，串行结果写入新数组，不与它们共享。
+   */
+  static <T> Entry[] resolveAll(List<T> items, Resolver<T> resolver, ExecutorService pool, String stage) {
+    int count = items.size();
+    if (count == 0)
+      return new Entry[0];
+    long start = SystemClock.elapsedRealtime();
+    int threads = 1;
+    Entry[] result = null;
+    if (pool != null && count >= PARALLEL_THRESHOLD) {
+      // 分片数为线程数的4倍，耗时不均的包不会拖住单个线程
+      int chunk = (count + RESOLVER_THREADS * 4 - 1) / (RESOLVER_THREADS * 4);
+      List<Callable<Entry[]>> tasks = new ArrayList<>();
+      for (int from = 0; from < count; from += chunk) {
+        int begin = from, end = Math.min(count, from + chunk);
+        tasks.add(() -> {
+          Entry[] part = new Entry[end - begin];
+          resolveRange(items.subList(begin, end), resolver, part);
+          return part;
+        });
+      }
+      try {
+        Entry[] merged = new Entry[count];
+        int offset = 0;
+        for (Future<Entry[]> future : pool.invokeAll(tasks)) {
+          Entry[] part = future.get();
+          System.arraycopy(part, 0, merged, offset, part.length);
+          offset += part.length;
+        }
+        result = merged;
+        threads = RESOLVER_THREADS;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | RejectedExecutionException e) {
+        Log.w(TAG, stage + "并行解析失败，改为串行: " + e);
+      }
+    }
+    if (result == null) {
+      result = new Entry[count];
+      resolveRange(items, resolver, result);
+    }
+    long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+    Log.i(TAG, stage + "解析 " + count + " 个应用，" + threads + " 线程，耗时 " + elapsed + "ms，" +
+        (count * 1000L / elapsed) + " 个/秒");
+    return result;
+  }
+
+  private static <T> void resolveRange(List<T> items, Resolver<T> resolver, Entry[] result) {
+    for (int i = 0; i < result.length; i++) {
+      try {
+        result[i] = resolver.resolve(items.get(i));
+      } catch (Exception e) {
+        Log.w(TAG, "解析应用失败: " + e);
+      }
+    }
+  }
+
+  private static List<Entry> compact(Entry[] slots) {
+    List<Entry> entries = new ArrayList<>(slots.length);
+    for (Entry entry : slots) {
+      if (entry != null)
+        entries.add(entry);
+    }
+    return entries;
+  }
+
+  static String loadLabel(PackageManager packageManager, PackageInfo packageInfo) {
+    try {
+      return packageManager.getApplicationLabel(packageInfo.applicationInfo).toString();
+    } catch (Exception e) {
+      return packageInfo.packageName;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 应用目录的磁盘快照：紧凑的二进制格式，冷启动时先用它渲染列表，再在后台按lastUpdateTime校验。
+ * 应用名随系统语言变化，语言不同时快照作废。
+ */
+final class AppCatalogStore {
+
+  private static final String TAG = "AppCatalogStore";
+  private static final String FILE_NAME = "app_catalog.bin";
+  private static final int MAGIC = 0x41435447;
+  private static final int VERSION = 2;
+
+  private final File file;
+
+  AppCatalogStore(File dir) {
+    this.file = new File(dir, FILE_NAME);
+  }
+
+  /**
+   * @return 快照中的应用，文件不存在、损坏或语言不一致时返回null
+   */
+  List<AppCatalog.Entry> read(String locale) {
+    if (!file.exists())
+      return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !locale.equals(in.readUTF()))
+        return null;
+      int count = in.readInt();
+      List<AppCatalog.Entry> entries = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String packageName = in.readUTF();
+        String label = in.readUTF();
+        String versionName = readString(in);
+        int versionCode = in.readInt();
+        int flags = in.readInt();
+        int uid = in.readInt();
+        String sourceDir = readString(in);
+        long firstInstallTime = in.readLong();
+        long lastUpdateTime = in.readLong();
+        boolean launchable = in.readBoolean();
+        boolean plugin = in.readBoolean();
+        String pluginName = null, pluginClass = null, pluginDescription = null, pluginAuthor = null, pluginSupportApps = null;
+        if (plugin) {
+          pluginName = readString(in);
+          pluginClass = readString(in);
+          pluginDescription = readString(in);
+          pluginAuthor = readString(in);
+          pluginSupportApps = readString(in);
+        }
+        entries.add(new AppCatalog.Entry(packageName, label, versionName, versionCode, flags, uid, sourceDir,
+            firstInstallTime, lastUpdateTime, launchable, plugin, pluginName, pluginClass, pluginDescription,
+            pluginAuthor, pluginSupportApps));
+      }
+      return entries;
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "读取应用快照失败: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * 先写临时文件再重命名，中途失败不会留下不完整的快照
+   */
+  void write(String locale, List<AppCatalog.Entry> entries) {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(locale);
+      out.writeInt(entries.size());
+      for (AppCatalog.Entry entry : entries) {
+        out.writeUTF(entry.packageName);
+        out.writeUTF(entry.label);
+        writeString(out, entry.versionName);
+        out.writeInt(entry.versionCode);
+        out.writeInt(entry.flags);
+        out.writeInt(entry.uid);
+        writeString(out, entry.sourceDir);
+        out.writeLong(entry.firstInstallTime);
+        out.writeLong(entry.lastUpdateTime);
+        out.writeBoolean(entry.launchable);
+        out.writeBoolean(entry.plugin);
+        if (entry.plugin) {
+          writeString(out, entry.pluginName);
+          writeString(out, entry.pluginClass);
+          writeString(out, entry.pluginDescription);
+          writeString(out, entry.pluginAuthor);
+          writeString(out, entry.pluginSupportApps);
+        }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "保存应用快照失败: " + e);
+      tmp.delete();
+      return;
+    }
+    if (!tmp.renameTo(file)) {
+      Log.w(TAG, "保存应用快照失败: rename");
+      tmp.delete();
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null)
+      out.writeUTF(value);
+  }
+}
@@ -1,99 +0,0 @@
-/*
- * Copyright 2025 QingWan (qingwanmail@foxmail.com)
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package qing.albatross.manager.data;
-
-import android.graphics.drawable.Drawable;
-
-/**
- * 应用信息数据模型
- */
-public class AppInfo {
-    private String packageName;
-    private String appName;
-    private String versionName;
-    private int versionCode;
-    private Drawable icon;
-    private long installTime;
-    private long updateTime;
-    private boolean isSystemApp;
-
-    public AppInfo() {
-    }
-
-    public String getPackageName() {
-        return packageName;
-    }
-
-    public void setPackageName(String packageName) {
-        this.packageName = packageName;
-    }
-
-    public String getAppName() {
-        return appName;
-    }
-
-    public void setAppName(String appName) {
-        this.appName = appName;
-    }
-
-    public String getVersionName() {
-        return versionName;
-    }
-
-    public void setVersionName(String versionName) {
-        this.versionName = versionName;
-    }
-
-    public int getVersionCode() {
-        return versionCode;
-    }
-
-    public void setVersionCode(int versionCode) {
-        this.versionCode = versionCode;
-    }
-
-    public Drawable getIcon() {
-        return icon;
-    }
-
-    public void setIcon(Drawable icon) {
-        this.icon = icon;
-    }
-
-    public long getInstallTime() {
-        return installTime;
-    }
-
-    public void setInstallTime(long installTime) {
-        this.installTime = installTime;
-    }
-
-    public long getUpdateTime() {
-        return updateTime;
-    }
-
-    public void setUpdateTime(long updateTime) {
-        this.updateTime = updateTime;
-    }
-
-    public boolean isSystemApp() {
-        return isSystemApp;
-    }
-
-    public void setSystemApp(boolean systemApp) {
-        isSystemApp = systemApp;
-    }
-}
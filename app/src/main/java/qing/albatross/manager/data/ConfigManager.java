@@ -34,6 +34,15 @@ public class ConfigManager {
   private static final String KEY_SERVER_RUNNING_STATE = "server_running_state";
   private static final String KEY_CORE_AVAIL_STATE = "core_availability";
   private static final String KEY_LAST_SERVER_UPDATE = "last_server_update";
+  private static final String KEY_SERVER_READY_TIMEOUT = "server_ready_timeout";
+  private static final String KEY_LAST_SERVER_READY_TIME = "last_server_ready_time";
+  private static final String KEY_LAST_SERVER_READY_ATTEMPTS = "last_server_ready_attempts";
+  private static final String KEY_LEGACY_RULES_MIGRATED = "legacy_rules_migrated";
+
+  // 启动服务后等待就绪的默认截止时间
+  public static final long DEFAULT_SERVER_READY_TIMEOUT = 20000;
+  public static final long MIN_SERVER_READY_TIMEOUT = 1000;
+  public static final long MAX_SERVER_READY_TIMEOUT = 120000;
 
   private static ConfigManager instance;
   private final SharedPreferences sharedPreferences;
@@ -85,6 +94,55 @@ public class ConfigManager {
     return sharedPreferences.getBoolean(KEY_CORE_AVAIL_STATE, false);
   }
 
+  /**
+   * 启动服务后等待其就绪的截止时间（毫秒）
+   */
+  public long getServerReadyTimeout() {
+    return sharedPreferences.getLong(KEY_SERVER_READY_TIMEOUT, DEFAULT_SERVER_READY_TIMEOUT);
+  }
+
+  /**
+   * @return 超出[MIN_SERVER_READY_TIMEOUT, MAX_SERVER_READY_TIMEOUT]时不保存并返回false
+   */
+  public boolean saveServerReadyTimeout(long timeoutMs) {
+    if (timeoutMs < MIN_SERVER_READY_TIMEOUT || timeoutMs > MAX_SERVER_READY_TIMEOUT)
+      return false;
+    sharedPreferences.edit().putLong(KEY_SERVER_READY_TIMEOUT, timeoutMs).apply();
+    return true;
+  }
+
+  /**
+   * 保存最近一次服务启动到就绪的耗时和探测次数，在设置页显示，用于跟踪启动耗时的回退
+   */
+  public void saveLastServerReady(long elapsedMs, int attempts) {
+    sharedPreferences.edit()
+        .putLong(KEY_LAST_SERVER_READY_TIME, elapsedMs)
+        .putInt(KEY_LAST_SERVER_READY_ATTEMPTS, attempts)
+        .apply();
+  }
+
+  /**
+   * @return 没有记录时返回-1
+   */
+  public long getLastServerReadyTime() {
+    return sharedPreferences.getLong(KEY_LAST_SERVER_READY_TIME, -1);
+  }
+
+  public int getLastServerReadyAttempts() {
+    return sharedPreferences.getInt(KEY_LAST_SERVER_READY_ATTEMPTS, 0);
+  }
+
+  /**
+   * 旧版plugin_rules.db中的规则是否已导入plugins.db
+   */
+  public boolean isLegacyRulesMigrated() {
+    return sharedPreferences.getBoolean(KEY_LEGACY_RULES_MIGRATED, false);
+  }
+
+  public void setLegacyRulesMigrated() {
+    sharedPreferences.edit().putBoolean(KEY_LEGACY_RULES_MIGRATED, true).apply();
+  }
+
   /**
    * 保存服务运行状态
    */
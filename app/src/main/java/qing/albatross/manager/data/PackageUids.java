@@ -0,0 +1,100 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import static qing.albatross.manager.data.Const.PKG_SYSTEM_SERVER;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Process;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 规则目标的包名 -> uid映射。服务端规则接口按uid匹配，每个包名只向PackageManager查询一次，
+ * 安装或重装时由AppCatalog根据广播中的uid更新。卸载后保留最后的uid，便于删除服务端残留的规则。
+ */
+public final class PackageUids {
+
+  public static final int UNKNOWN_UID = -1;
+
+  private static PackageUids instance;
+
+  private final PackageManager packageManager;
+  private final Map<String, Integer> uids = new ConcurrentHashMap<>();
+
+  private PackageUids(Context context) {
+    packageManager = context.getPackageManager();
+  }
+
+  public static synchronized PackageUids getInstance(Context context) {
+    if (instance == null) {
+      instance = new PackageUids(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * @return 包对应的uid，未安装且没有记录时返回UNKNOWN_UID
+   */
+  public int getUid(String packageName) {
+    Integer cached = uids.get(packageName);
+    if (cached != null)
+      return cached;
+    int uid;
+    if (PKG_SYSTEM_SERVER.equals(packageName)) {
+      uid = Process.SYSTEM_UID;
+    } else {
+      try {
+        uid = packageManager.getApplicationInfo(packageName, 0).uid;
+      } catch (PackageManager.NameNotFoundException e) {
+        // 未安装的不缓存，安装后可以重新查询
+        return UNKNOWN_UID;
+      }
+    }
+    uids.put(packageName, uid);
+    return uid;
+  }
+
+  /**
+   * 批量解析，保持输入顺序，无法解析的包名值为UNKNOWN_UID
+   */
+  public Map<String, Integer> resolve(Collection<String> packageNames) {
+    Map<String, Integer> result = new LinkedHashMap<>(packageNames.size() * 2);
+    for (String packageName : packageNames) {
+      result.put(packageName, getUid(packageName));
+    }
+    return result;
+  }
+
+  /**
+   * 卸载时记录广播中的uid，此后getUid仍返回它，直到重新安装
+   */
+  public void onPackageRemoved(String packageName, int uid) {
+    if (uid != UNKNOWN_UID)
+      uids.put(packageName, uid);
+  }
+
+  void onPackageAdded(String packageName, int uid) {
+    if (uid == UNKNOWN_UID)
+      uids.remove(packageName);
+    else
+      uids.put(packageName, uid);
+  }
+}
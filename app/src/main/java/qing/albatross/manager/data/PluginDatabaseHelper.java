@@ -20,12 +20,18 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.File;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import qing.albatross.manager.plugin.AsyncPluginDelegate;
 import qing.albatross.manager.plugin.PluginDelegate;
 
 /**
@@ -33,8 +39,11 @@ import qing.albatross.manager.plugin.PluginDelegate;
  */
 public class PluginDatabaseHelper extends SQLiteOpenHelper {
 
+  private static final String TAG = "PluginDatabaseHelper";
   private static final String DATABASE_NAME = "plugins.db";
-  private static final int DATABASE_VERSION = 3; // 版本升级
+  private static final int DATABASE_VERSION = 5; // 版本5：规则表按目标应用建索引
+  // 版本4之前规则单独存放的数据库，迁移后保留不删除
+  private static final String LEGACY_RULES_DATABASE = "plugin_rules.db";
   private static PluginDatabaseHelper instance;
 
   // 插件表
@@ -56,8 +65,18 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
 
   // 私有构造函数，确保单例
   private PluginDatabaseHelper(Context context) {
-    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    this(context, DATABASE_NAME);
+  }
+
+  /**
+   * 使用独立的数据库文件，供基准测试使用，不影响单例
+   */
+  @VisibleForTesting
+  PluginDatabaseHelper(Context context, String name) {
+    super(context, name, null, DATABASE_VERSION);
     this.context = context;
+    // 单例长期持有连接，WAL模式下读可以和写并发进行
+    setWriteAheadLoggingEnabled(true);
   }
 
   // 获取单例实例
@@ -85,6 +104,85 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
         // 新增列：支持的应用列表（默认空字符串）
         COLUMN_SUPPORTED_APPS + " TEXT DEFAULT '')";
     db.execSQL(createTable);
+    createRulesTable(db);
+    createRulesIndex(db);
+  }
+
+  @Override
+  public void onConfigure(SQLiteDatabase db) {
+    db.setForeignKeyConstraintsEnabled(true);
+  }
+
+  /**
+   * 规则表，通过plugin_id引用插件，删除插件时级联删除其规则
+   */
+  private static void createRulesTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS " + PluginRuleDatabaseHelper.TABLE_RULES + " (" +
+        PluginRuleDatabaseHelper.COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+        PluginRuleDatabaseHelper.COLUMN_PLUGIN_ID + " INTEGER NOT NULL REFERENCES " + TABLE_PLUGINS +
+        "(" + COLUMN_ID + ") ON DELETE CASCADE, " +
+        PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE + " TEXT NOT NULL, " +
+        "UNIQUE(" + PluginRuleDatabaseHelper.COLUMN_PLUGIN_ID + ", " +
+        PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE + ") ON CONFLICT REPLACE)");
+  }
+
+  /**
+   * 按目标应用查插件的反向索引，插件到目标应用的方向由UNIQUE(plugin_id, target_package)覆盖
+   */
+  private static void createRulesIndex(SQLiteDatabase db) {
+    db.execSQL("CREATE INDEX IF NOT EXISTS idx_plugin_rules_target ON " + PluginRuleDatabaseHelper.TABLE_RULES +
+        "(" + PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE + ")");
+  }
+
+  /**
+   * 从旧的plugin_rules.db导入规则，按包名关联到插件id。旧文件只读打开，不做修改。
+   * 在单独的事务中执行，成功后记录标记；失败时整体回滚并保留旧文件，下次打开数据库时重试
+   */
+  private void migrateLegacyRules(SQLiteDatabase db) {
+    File legacy = context.getDatabasePath(LEGACY_RULES_DATABASE);
+    if (!legacy.exists())
+      return;
+    ConfigManager config = ConfigManager.getInstance(context);
+    if (config.isLegacyRulesMigrated())
+      return;
+    SQLiteDatabase legacyDb = null;
+    Cursor cursor = null;
+    boolean inTransaction = false;
+    int migrated = 0;
+    try {
+      legacyDb = SQLiteDatabase.openDatabase(legacy.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+      cursor = legacyDb.rawQuery("SELECT plugin_package, target_package FROM plugin_rules", null);
+      String insert = "INSERT OR IGNORE INTO " + PluginRuleDatabaseHelper.TABLE_RULES + " (" +
+          PluginRuleDatabaseHelper.COLUMN_PLUGIN_ID + ", " + PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE +
+          ") SELECT " + COLUMN_ID + ", ? FROM " + TABLE_PLUGINS + " WHERE " + COLUMN_PACKAGE + " = ?";
+      db.beginTransaction();
+      inTransaction = true;
+      while (cursor.moveToNext()) {
+        db.execSQL(insert, new Object[]{cursor.getString(1), cursor.getString(0)});
+        migrated++;
+      }
+      db.setTransactionSuccessful();
+    } catch (Exception e) {
+      Log.e(TAG, "迁移旧规则失败，下次打开数据库时重试", e);
+      return;
+    } finally {
+      if (inTransaction)
+        db.endTransaction();
+      if (cursor != null)
+        cursor.close();
+      if (legacyDb != null)
+        legacyDb.close();
+    }
+    config.setLegacyRulesMigrated();
+    Log.i(TAG, "迁移旧规则 " + migrated + " 条");
+  }
+
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    super.onOpen(db);
+    // 在升级事务提交后执行，迁移失败不会回滚表结构升级。基准测试使用的独立数据库不参与迁移
+    if (!db.isReadOnly() && DATABASE_NAME.equals(getDatabaseName()))
+      migrateLegacyRules(db);
   }
 
   @Override
@@ -97,8 +195,40 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
       // 升级到版本2：添加参数列
       db.execSQL("ALTER TABLE " + TABLE_PLUGINS + " RENAME COLUMN  injector TO " + COLUMN_CLASS);
     }
+    if (oldVersion < 4) {
+      // 旧规则在onOpen中迁移
+      createRulesTable(db);
+    }
+    if (oldVersion < 5) {
+      createRulesIndex(db);
+    }
   }
 
+  /**
+   * 插件行映射，列顺序即投影顺序
+   */
+  static final RowMapper<Plugin> PLUGIN_MAPPER = new RowMapper<Plugin>(COLUMN_ID, COLUMN_NAME, COLUMN_PACKAGE,
+      COLUMN_CLASS, COLUMN_DESCRIPTION, COLUMN_AUTHOR, COLUMN_APP_VERSION, COLUMN_ENABLED, COLUMN_PARAM1,
+      COLUMN_PARAM2, COLUMN_SUPPORTED_APPS) {
+    @Override
+    Plugin map(Cursor cursor, int[] indices) {
+      Plugin plugin = new Plugin();
+      plugin.setId(cursor.getLong(indices[0]));
+      plugin.setName(cursor.getString(indices[1]));
+      plugin.setPackageName(cursor.getString(indices[2]));
+      plugin.setClassName(cursor.getString(indices[3]));
+      plugin.setDescription(cursor.getString(indices[4]));
+      plugin.setAuthor(cursor.getString(indices[5]));
+      plugin.setAppVersion(cursor.getString(indices[6]));
+      plugin.setEnabled(cursor.getInt(indices[7]) == 1);
+      plugin.setParams(cursor.getString(indices[8]));
+      plugin.setFlags(cursor.getInt(indices[9]));
+      plugin.setSupportApps(cursor.getString(indices[10]));
+      return plugin;
+    }
+  };
+
+
   /**
    * 更新插件配置参数
    */
@@ -118,12 +248,10 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
         COLUMN_PACKAGE + " = ?",
         new String[]{packageName}
     );
-    db.close();
+    if (rowsAffected > 0)
+      PluginStore.getInstance().publish(PluginStore.ChangeType.PARAMS_CHANGED, packageName);
     if(plugin.isEnabled() &&rowsAffected>0){
-      PluginDelegate handler = PluginDelegate.get();
-      if(handler!=null){
-        handler.modifyPlugin(plugin.getId(),className,param1,param2);
-      }
+      AsyncPluginDelegate.modifyPlugin(plugin.getId(),className,param1,param2);
     }
     return rowsAffected;
   }
@@ -133,34 +261,18 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
    */
   public Plugin getPluginWithParams(String packageName) {
     SQLiteDatabase db = this.getReadableDatabase();
-    Plugin plugin = null;
-    Cursor cursor = db.query(
+    try (Cursor cursor = db.query(
         TABLE_PLUGINS,
-        null,
+        PLUGIN_MAPPER.projection(),
         COLUMN_PACKAGE + " = ?",
         new String[]{packageName},
         null, null, null
-    );
-    if (cursor.moveToFirst()) {
-      plugin = new Plugin();
-      plugin.setId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)));
-      plugin.setName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)));
-      plugin.setPackageName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PACKAGE)));
-      plugin.setClassName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CLASS)));
-      plugin.setDescription(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DESCRIPTION)));
-      plugin.setAuthor(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR)));
-      plugin.setAppVersion(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_APP_VERSION)));
-      plugin.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ENABLED)) == 1);
-      // 读取参数
-      plugin.setParams(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PARAM1)));
-      plugin.setFlags(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_PARAM2)));
-      plugin.setSupportApps(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SUPPORTED_APPS)));
+    )) {
+      return PLUGIN_MAPPER.mapFirst(cursor);
     }
-    cursor.close();
-    db.close();
-    return plugin;
   }
 
+
   /**
    * 添加新插件
    */
@@ -178,7 +290,8 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
     values.put(COLUMN_PARAM2, plugin.getFlags()); // 保存参数2
     values.put(COLUMN_SUPPORTED_APPS, plugin.getSupportedApps());
     long id = db.insert(TABLE_PLUGINS, null, values);
-    db.close();
+    if (id != -1)
+      PluginStore.getInstance().publish(PluginStore.ChangeType.ADDED, plugin.getPackageName());
     return id;
   }
 
@@ -186,74 +299,28 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
    * 获取所有插件
    */
   public List<Plugin> getAllPlugins() {
-    List<Plugin> plugins = new ArrayList<>();
-    String selectQuery = "SELECT * FROM " + TABLE_PLUGINS;
-
     SQLiteDatabase db = this.getReadableDatabase();
-    Cursor cursor = db.rawQuery(selectQuery, null);
-    if (cursor.moveToFirst()) {
-      do {
-        Plugin plugin = new Plugin();
-        plugin.setId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)));
-        plugin.setName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)));
-        plugin.setPackageName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PACKAGE)));
-        plugin.setClassName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CLASS)));
-        plugin.setDescription(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DESCRIPTION)));
-        plugin.setAuthor(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR)));
-        plugin.setAppVersion(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_APP_VERSION)));
-        plugin.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ENABLED)) == 1);
-        plugin.setParams(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PARAM1)));
-        plugin.setFlags(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_PARAM2)));
-        plugin.setSupportApps(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SUPPORTED_APPS)));
-        plugins.add(plugin);
-      } while (cursor.moveToNext());
+    try (Cursor cursor = db.query(TABLE_PLUGINS, PLUGIN_MAPPER.projection(), null, null, null, null, null)) {
+      return PLUGIN_MAPPER.mapAll(cursor);
     }
-    cursor.close();
-    db.close();
-    return plugins;
   }
 
+
   /**
    * 获取所有启用（enabled 为 True）的插件
    *
    * @return 启用的插件列表
    */
   public List<Plugin> getEnabledPlugins() {
-    List<Plugin> enabledPlugins = new ArrayList<>();
-    // 查询条件：只选择 enabled 为 1（True）的记录
-    String selectQuery = "SELECT * FROM " + TABLE_PLUGINS +
-        " WHERE " + COLUMN_ENABLED + " = 1";
-
     SQLiteDatabase db = this.getReadableDatabase();
-    Cursor cursor = db.rawQuery(selectQuery, null);
-
-    if (cursor.moveToFirst()) {
-      do {
-        // 与 getAllPlugins() 相同的方式解析插件信息
-        Plugin plugin = new Plugin();
-        plugin.setId(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)));
-        plugin.setName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)));
-        plugin.setPackageName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PACKAGE)));
-        plugin.setClassName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CLASS)));
-        plugin.setDescription(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DESCRIPTION)));
-        plugin.setAuthor(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUTHOR)));
-        plugin.setAppVersion(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_APP_VERSION)));
-        // 此时 enabled 必然为 true，但仍保持与原逻辑一致的赋值方式
-        plugin.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ENABLED)) == 1);
-        plugin.setParams(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PARAM1)));
-        plugin.setFlags(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_PARAM2)));
-
-        enabledPlugins.add(plugin);
-      } while (cursor.moveToNext());
+    // 查询条件：只选择 enabled 为 1（True）的记录
+    try (Cursor cursor = db.query(TABLE_PLUGINS, PLUGIN_MAPPER.projection(),
+        COLUMN_ENABLED + " = 1", null, null, null, null)) {
+      return PLUGIN_MAPPER.mapAll(cursor);
     }
-
-    // 关闭资源，避免内存泄漏
-    cursor.close();
-    db.close();
-
-    return enabledPlugins;
   }
 
+
   /**
    * 根据包名获取插件（兼容旧版本，不包含参数）
    */
@@ -265,6 +332,22 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
    * 更新插件启用状态
    */
   public int updatePluginState(Plugin plugin, boolean isEnabled) {
+    int rowsAffected = writePluginState(plugin, isEnabled);
+    if (rowsAffected > 0)
+      pushPluginState(plugin, isEnabled);
+    return rowsAffected;
+  }
+
+  /**
+   * 更新插件启用状态并推送服务端，结果在推送完成后给出：写库或推送失败为false，服务未运行时写库成功即为true
+   */
+  public CompletableFuture<Boolean> applyPluginState(Plugin plugin, boolean isEnabled) {
+    if (writePluginState(plugin, isEnabled) <= 0)
+      return CompletableFuture.completedFuture(false);
+    return pushPluginState(plugin, isEnabled);
+  }
+
+  private int writePluginState(Plugin plugin, boolean isEnabled) {
     SQLiteDatabase db = this.getWritableDatabase();
     ContentValues values = new ContentValues();
     String packageName = plugin.getPackageName();
@@ -275,38 +358,40 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
         COLUMN_PACKAGE + " = ?",
         new String[]{packageName}
     );
-    db.close();
-    if (rowsAffected > 0) {
-      PluginDelegate handler = PluginDelegate.get();
-      if (handler != null) {
-        PluginRuleDatabaseHelper ruleDb = PluginRuleDatabaseHelper.getInstance(context);
-        List<String> packages = ruleDb.getTargetPackages(packageName);
-        {
-          try {
-            int pluginId = plugin.getId();
-            if (isEnabled) {
-              String pluginDex;
-              try {
-                pluginDex = context.getPackageManager().getPackageInfo(packageName, 0).applicationInfo.sourceDir;
-              } catch (Exception e) {
-                deletePlugin(plugin);
-                return rowsAffected;
-              }
-              handler.addPlugin(pluginId, pluginDex, plugin.getClassName(), plugin.getParams(), plugin.getFlags());
-              for (String targetPackage : packages) {
-                handler.addPluginRule(pluginId, targetPackage);
-              }
-            } else {
-              handler.deletePlugin(pluginId);
-            }
-          } catch (Throwable ignore) {
-          }
-        }
-      }
-    }
+    if (rowsAffected > 0)
+      PluginStore.getInstance().publish(PluginStore.ChangeType.ENABLED, packageName);
     return rowsAffected;
   }
 
+  private CompletableFuture<Boolean> pushPluginState(Plugin plugin, boolean isEnabled) {
+    if (PluginDelegate.get() == null)
+      return CompletableFuture.completedFuture(true);
+    String packageName = plugin.getPackageName();
+    int pluginId = plugin.getId();
+    if (!isEnabled)
+      return AsyncPluginDelegate.deletePlugin(pluginId);
+    String pluginDex;
+    try {
+      pluginDex = context.getPackageManager().getPackageInfo(packageName, 0).applicationInfo.sourceDir;
+    } catch (Exception e) {
+      // 插件已卸载，启用失败
+      deletePlugin(plugin);
+      return CompletableFuture.completedFuture(false);
+    }
+    PluginRuleDatabaseHelper ruleDb = PluginRuleDatabaseHelper.getInstance(context);
+    Map<String, Integer> targets = ruleDb.getTargetUids(packageName);
+    String className = plugin.getClassName();
+    String params = plugin.getParams();
+    int flags = plugin.getFlags();
+    // 注册和规则在RPC线程上按顺序执行，不阻塞调用方
+    return AsyncPluginDelegate.call("enablePlugin", false, handler -> {
+      if (!handler.addPlugin(pluginId, pluginDex, className, params, flags))
+        return false;
+      handler.addPluginRules(pluginId, targets);
+      return true;
+    });
+  }
+
   /**
    * 更新插件启用状态（别名方法）
    */
@@ -318,44 +403,35 @@ public class PluginDatabaseHelper extends SQLiteOpenHelper {
    * 删除插件
    */
   public int deletePlugin(Plugin plugin) {
+    int rowsDeleted = deletePluginRows(plugin);
+    AsyncPluginDelegate.deletePlugin(plugin.getId());
+    return rowsDeleted;
+  }
+
+  /**
+   * 删除插件并从服务端注销，结果在注销完成后给出：删除或注销失败为false，服务未运行时删除成功即为true
+   */
+  public CompletableFuture<Boolean> removePlugin(Plugin plugin) {
+    boolean deleted = deletePluginRows(plugin) > 0;
+    boolean connected = PluginDelegate.get() != null;
+    CompletableFuture<Boolean> pushed = AsyncPluginDelegate.deletePlugin(plugin.getId());
+    if (!deleted)
+      return CompletableFuture.completedFuture(false);
+    return connected ? pushed : CompletableFuture.completedFuture(true);
+  }
+
+  private int deletePluginRows(Plugin plugin) {
     String packageName = plugin.getPackageName();
     SQLiteDatabase db = this.getWritableDatabase();
+    // 规则通过外键级联删除
     int rowsDeleted = db.delete(
         TABLE_PLUGINS,
         COLUMN_PACKAGE + " = ?",
         new String[]{packageName}
     );
-    db.close();
-    PluginRuleDatabaseHelper ruleDb = PluginRuleDatabaseHelper.getInstance(context);
-    ruleDb.deleteAllRulesForPlugin(packageName);
-    PluginDelegate handler = PluginDelegate.get();
-    if (handler != null) {
-      try {
-        handler.deletePlugin(plugin.getId());
-      } catch (Throwable ignore) {
-      }
-    }
+    PluginRuleDatabaseHelper.getInstance(context).onPluginDeleted(packageName);
+    if (rowsDeleted > 0)
+      PluginStore.getInstance().publish(PluginStore.ChangeType.REMOVED, packageName);
     return rowsDeleted;
   }
-
-  public Map<Plugin, List<String>> getPluginEffectiveApps(boolean enabled) {
-    Map<Plugin, List<String>> resultMap = new HashMap<>();
-    // 获取所有插件
-    List<Plugin> allPlugins;
-    if (enabled)
-      allPlugins = getEnabledPlugins();
-    else
-      allPlugins = getAllPlugins();
-    if (allPlugins.isEmpty()) {
-      return resultMap;
-    }
-    PluginRuleDatabaseHelper ruleDb = PluginRuleDatabaseHelper.getInstance(context);
-    // 为每个插件查询生效的应用列表
-    for (Plugin plugin : allPlugins) {
-      List<String> effectiveApps = ruleDb.getTargetPackages(plugin.getPackageName());
-      resultMap.put(plugin, effectiveApps);
-    }
-    return resultMap;
-  }
 }
-    
\ No newline at end of file
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 插件状态变更队列：启用/禁用和删除在单个后台线程上按提交顺序执行，先写库再推送服务端。
+ * 同一插件尚未执行的启用状态变更会合并，只执行最后一次；删除会取代未执行的启用状态变更。
+ * 推送完成后在主线程回调，界面销毁时用removeCallback解除回调。
+ */
+public final class PluginMutationQueue {
+
+  private static final String TAG = "PluginMutationQueue";
+
+  public interface Callback {
+    /**
+     * @param success 写库和推送服务端是否都成功，状态已经是目标值时也视为成功
+     */
+    void onApplied(String packageName, boolean success);
+  }
+
+  private static final class Pending {
+    boolean enabled;
+    boolean delete;
+    final List<Callback> callbacks = new ArrayList<>();
+  }
+
+  private static PluginMutationQueue instance;
+
+  private final PluginDatabaseHelper dbHelper;
+  private final Map<String, Pending> pending = new HashMap<>();
+  // 已写库、等待推送结果的变更
+  private final List<Pending> inFlight = new ArrayList<>();
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "plugin-mutation");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private PluginMutationQueue(Context context) {
+    dbHelper = PluginDatabaseHelper.getInstance(context);
+  }
+
+  public static synchronized PluginMutationQueue getInstance(Context context) {
+    if (instance == null) {
+      instance = new PluginMutationQueue(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * 提交启用状态变更
+   */
+  public void setEnabled(String packageName, boolean enabled, Callback callback) {
+    enqueue(packageName, false, enabled, callback);
+  }
+
+  /**
+   * 提交删除
+   */
+  public void delete(String packageName, Callback callback) {
+    enqueue(packageName, true, false, callback);
+  }
+
+  /**
+   * 解除回调，尚未执行和等待推送结果的变更都不再通知它
+   */
+  public void removeCallback(Callback callback) {
+    synchronized (pending) {
+      for (Pending mutation : pending.values()) {
+        mutation.callbacks.remove(callback);
+      }
+      for (Pending mutation : inFlight) {
+        mutation.callbacks.remove(callback);
+      }
+    }
+  }
+
+  private void enqueue(String packageName, boolean delete, boolean enabled, Callback callback) {
+    synchronized (pending) {
+      Pending mutation = pending.get(packageName);
+      if (mutation == null) {
+        mutation = new Pending();
+        pending.put(packageName, mutation);
+        worker.execute(() -> apply(packageName));
+      }
+      if (delete) {
+        mutation.delete = true;
+      } else if (!mutation.delete) {
+        mutation.enabled = enabled;
+      }
+      if (callback != null)
+        mutation.callbacks.add(callback);
+    }
+  }
+
+  private void apply(String packageName) {
+    Pending mutation;
+    synchronized (pending) {
+      mutation = pending.remove(packageName);
+      if (mutation == null)
+        return;
+      inFlight.add(mutation);
+    }
+    CompletableFuture<Boolean> result;
+    try {
+      Plugin plugin = dbHelper.getPluginWithParams(packageName);
+      if (plugin == null) {
+        // 插件已不存在，删除视为成功
+        result = CompletableFuture.completedFuture(mutation.delete);
+      } else if (mutation.delete) {
+        result = dbHelper.removePlugin(plugin);
+      } else if (plugin.isEnabled() == mutation.enabled) {
+        result = CompletableFuture.completedFuture(true);
+      } else {
+        plugin.setEnabled(mutation.enabled);
+        result = dbHelper.applyPluginState(plugin, mutation.enabled);
+      }
+    } catch (Exception e) {
+      Log.e(TAG, "apply " + packageName + " failed", e);
+      result = CompletableFuture.completedFuture(false);
+    }
+    result.whenComplete((success, error) -> {
+      if (error != null)
+        Log.e(TAG, "push " + packageName + " failed", error);
+      boolean applied = error == null && Boolean.TRUE.equals(success);
+      List<Callback> callbacks;
+      synchronized (pending) {
+        inFlight.remove(mutation);
+        callbacks = new ArrayList<>(mutation.callbacks);
+      }
+      for (Callback callback : callbacks) {
+        handler.post(() -> callback.onApplied(packageName, applied));
+      }
+    });
+  }
+}
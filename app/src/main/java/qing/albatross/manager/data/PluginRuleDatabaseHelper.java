@@ -19,32 +19,49 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import qing.albatross.manager.plugin.PluginDelegate;
+import qing.albatross.manager.plugin.AsyncPluginDelegate;
 
 /**
- * 插件生效应用规则数据库
- * 存储插件在哪些应用上生效的配置
+ * 插件生效应用规则
+ * 存储插件在哪些应用上生效的配置，规则表位于plugins.db中并通过外键引用插件
  */
-public class PluginRuleDatabaseHelper extends SQLiteOpenHelper {
-  private static final String DATABASE_NAME = "plugin_rules.db";
-  private static final int DATABASE_VERSION = 1;
+public class PluginRuleDatabaseHelper {
+  private static final String TAG = "PluginRuleDatabaseHelper";
   private static PluginRuleDatabaseHelper instance;
 
   // 规则表
   public static final String TABLE_RULES = "plugin_rules";
   public static final String COLUMN_ID = "_id";
-  public static final String COLUMN_PLUGIN_PACKAGE = "plugin_package";
+  public static final String COLUMN_PLUGIN_ID = "plugin_id";
   public static final String COLUMN_TARGET_PACKAGE = "target_package";
   public Context context;
+  private final PluginDatabaseHelper pluginDb;
+  private final RuleCache cache;
 
   private PluginRuleDatabaseHelper(Context context) {
-    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    this(context, PluginDatabaseHelper.getInstance(context));
+  }
+
+  /**
+   * 使用指定的插件数据库，供基准测试使用，不影响单例
+   */
+  @VisibleForTesting
+  PluginRuleDatabaseHelper(Context context, PluginDatabaseHelper pluginDb) {
     this.context = context;
+    this.pluginDb = pluginDb;
+    this.cache = new RuleCache(pluginDb);
   }
 
   public static synchronized PluginRuleDatabaseHelper getInstance(Context context) {
@@ -54,44 +71,25 @@ public class PluginRuleDatabaseHelper extends SQLiteOpenHelper {
     return instance;
   }
 
-  @Override
-  public void onCreate(SQLiteDatabase db) {
-    // 创建规则表
-    String createTable = "CREATE TABLE " + TABLE_RULES + " (" +
-        COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-        COLUMN_PLUGIN_PACKAGE + " TEXT NOT NULL, " +
-        COLUMN_TARGET_PACKAGE + " TEXT NOT NULL, " +
-        "UNIQUE(" + COLUMN_PLUGIN_PACKAGE + ", " + COLUMN_TARGET_PACKAGE + ") ON CONFLICT REPLACE)";
-    db.execSQL(createTable);
-  }
-
-  @Override
-  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-    db.execSQL("DROP TABLE IF EXISTS " + TABLE_RULES);
-    onCreate(db);
-  }
-
   /**
    * 添加规则：插件对目标应用生效
    */
   public long addRule(Plugin plugin, String targetPackage) {
-    SQLiteDatabase db = this.getWritableDatabase();
+    SQLiteDatabase db = pluginDb.getWritableDatabase();
     long id;
-    String pluginPackageName = plugin.getPackageName();
     try {
       ContentValues values = new ContentValues();
-      values.put(COLUMN_PLUGIN_PACKAGE, pluginPackageName);
+      values.put(COLUMN_PLUGIN_ID, plugin.getId());
       values.put(COLUMN_TARGET_PACKAGE, targetPackage);
       id = db.insert(TABLE_RULES, null, values);
     } catch (Exception e) {
       id = 0;
     }
-    db.close();
-    if (plugin.isEnabled() && id > 0) {
-      PluginDelegate handler = PluginDelegate.get();
-      if (handler != null) {
-        handler.addPluginRule(plugin.getId(), targetPackage);
-      }
+    if (id > 0) {
+      cache.addTargets(plugin.getPackageName(), Collections.singleton(targetPackage));
+      publishRulesChanged(plugin);
+      if (plugin.isEnabled())
+        AsyncPluginDelegate.addPluginRule(plugin.getId(), targetPackage);
     }
     return id;
   }
@@ -100,63 +98,145 @@ public class PluginRuleDatabaseHelper extends SQLiteOpenHelper {
    * 移除规则：插件对目标应用不生效
    */
   public int removeRule(Plugin plugin, String targetPackage) {
-    String pluginPackage = plugin.getPackageName();
-    SQLiteDatabase db = this.getWritableDatabase();
+    SQLiteDatabase db = pluginDb.getWritableDatabase();
     int rowsDeleted = db.delete(
         TABLE_RULES,
-        COLUMN_PLUGIN_PACKAGE + " = ? AND " + COLUMN_TARGET_PACKAGE + " = ?",
-        new String[]{pluginPackage, targetPackage}
+        COLUMN_PLUGIN_ID + " = ? AND " + COLUMN_TARGET_PACKAGE + " = ?",
+        new String[]{String.valueOf(plugin.getId()), targetPackage}
     );
-    db.close();
-    if (plugin.isEnabled() && rowsDeleted > 0) {
-      PluginDelegate handler = PluginDelegate.get();
-      if (handler != null) {
-        handler.deletePluginRule(plugin.getId(), targetPackage);
-      }
+    if (rowsDeleted > 0) {
+      cache.removeTargets(plugin.getPackageName(), Collections.singleton(targetPackage));
+      publishRulesChanged(plugin);
+      if (plugin.isEnabled())
+        AsyncPluginDelegate.deletePluginRule(plugin.getId(), targetPackage);
     }
     return rowsDeleted;
   }
 
+  /**
+   * 批量添加规则，在一个事务内用同一条预编译语句插入，新增的规则作为一批推送到服务端
+   *
+   * @return 实际新增规则的包名，已存在的不计入；事务失败返回null
+   */
+  public List<String> addRules(Plugin plugin, Collection<String> targetPackages) {
+    if (targetPackages.isEmpty())
+      return Collections.emptyList();
+    List<String> added = new ArrayList<>();
+    SQLiteDatabase db = pluginDb.getWritableDatabase();
+    db.beginTransaction();
+    try (SQLiteStatement statement = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_RULES +
+        " (" + COLUMN_PLUGIN_ID + ", " + COLUMN_TARGET_PACKAGE + ") VALUES (?, ?)")) {
+      statement.bindLong(1, plugin.getId());
+      for (String targetPackage : targetPackages) {
+        statement.bindString(2, targetPackage);
+        if (statement.executeInsert() != -1)
+          added.add(targetPackage);
+      }
+      db.setTransactionSuccessful();
+    } catch (Exception e) {
+      Log.e(TAG, "批量添加规则失败", e);
+      return null;
+    } finally {
+      db.endTransaction();
+    }
+    cache.addTargets(plugin.getPackageName(), added);
+    if (!added.isEmpty())
+      publishRulesChanged(plugin);
+    if (plugin.isEnabled() && !added.isEmpty()) {
+      AsyncPluginDelegate.addPluginRules(plugin.getId(), added);
+    }
+    return added;
+  }
+
+  /**
+   * 批量移除规则，与addRules相同在一个事务内完成
+   *
+   * @return 实际删除规则的包名；事务失败返回null
+   */
+  public List<String> removeRules(Plugin plugin, Collection<String> targetPackages) {
+    if (targetPackages.isEmpty())
+      return Collections.emptyList();
+    List<String> removed = new ArrayList<>();
+    SQLiteDatabase db = pluginDb.getWritableDatabase();
+    db.beginTransaction();
+    try (SQLiteStatement statement = db.compileStatement("DELETE FROM " + TABLE_RULES +
+        " WHERE " + COLUMN_PLUGIN_ID + " = ? AND " + COLUMN_TARGET_PACKAGE + " = ?")) {
+      statement.bindLong(1, plugin.getId());
+      for (String targetPackage : targetPackages) {
+        statement.bindString(2, targetPackage);
+        if (statement.executeUpdateDelete() > 0)
+          removed.add(targetPackage);
+      }
+      db.setTransactionSuccessful();
+    } catch (Exception e) {
+      Log.e(TAG, "批量移除规则失败", e);
+      return null;
+    } finally {
+      db.endTransaction();
+    }
+    cache.removeTargets(plugin.getPackageName(), removed);
+    if (!removed.isEmpty())
+      publishRulesChanged(plugin);
+    if (plugin.isEnabled() && !removed.isEmpty()) {
+      AsyncPluginDelegate.deletePluginRules(plugin.getId(), removed);
+    }
+    return removed;
+  }
+
+  /**
+   * 数据库写入成功后发布，不依赖缓存是否已加载
+   */
+  private static void publishRulesChanged(Plugin plugin) {
+    PluginStore.getInstance().publish(PluginStore.ChangeType.RULES_CHANGED, plugin.getPackageName());
+  }
+
+  /**
+   * 规则缓存，可注册观察者接收规则变化
+   */
+  public RuleCache getCache() {
+    return cache;
+  }
+
   /**
    * 获取插件生效的所有应用包名
    */
   public List<String> getTargetPackages(String pluginPackage) {
-    List<String> packages = new ArrayList<>();
-    SQLiteDatabase db = this.getReadableDatabase();
+    return new ArrayList<>(cache.getTargets(pluginPackage));
+  }
 
-    Cursor cursor = db.query(
-        TABLE_RULES,
-        new String[]{COLUMN_TARGET_PACKAGE},
-        COLUMN_PLUGIN_PACKAGE + " = ?",
-        new String[]{pluginPackage},
-        null, null, null
-    );
+  /**
+   * 获取插件生效的所有应用包名，返回缓存中的不可变集合
+   */
+  public Set<String> getTargetSet(String pluginPackage) {
+    return cache.getTargets(pluginPackage);
+  }
 
-    if (cursor.moveToFirst()) {
-      do {
-        String targetPackage = cursor.getString(
-            cursor.getColumnIndexOrThrow(COLUMN_TARGET_PACKAGE)
-        );
-        packages.add(targetPackage);
-      } while (cursor.moveToNext());
-    }
+  /**
+   * 获取插件生效的应用及其uid，供服务端按uid下发规则
+   */
+  public Map<String, Integer> getTargetUids(String pluginPackage) {
+    return PackageUids.getInstance(context).resolve(cache.getTargets(pluginPackage));
+  }
 
-    cursor.close();
-    db.close();
-    return packages;
+  /**
+   * 插件已从数据库删除（规则随外键级联删除），同步清理缓存。变更由PluginDatabaseHelper以REMOVED发布
+   */
+  void onPluginDeleted(String pluginPackage) {
+    cache.removePlugin(pluginPackage);
   }
 
   /**
-   * 删除插件的所有规则
+   * 获取对目标应用生效的所有插件（包括已禁用的），走target_package索引
    */
-  public int deleteAllRulesForPlugin(String pluginPackage) {
-    SQLiteDatabase db = this.getWritableDatabase();
-    int rowsDeleted = db.delete(
-        TABLE_RULES,
-        COLUMN_PLUGIN_PACKAGE + " = ?",
-        new String[]{pluginPackage}
-    );
-    db.close();
-    return rowsDeleted;
+  public List<Plugin> getPluginsForTarget(String targetPackage) {
+    SQLiteDatabase db = pluginDb.getReadableDatabase();
+    try (Cursor cursor = db.rawQuery(
+        "SELECT " + PluginDatabaseHelper.PLUGIN_MAPPER.select("p") + " FROM " + TABLE_RULES + " r JOIN " +
+            PluginDatabaseHelper.TABLE_PLUGINS + " p ON p." + PluginDatabaseHelper.COLUMN_ID + " = r." +
+            COLUMN_PLUGIN_ID + " WHERE r." + COLUMN_TARGET_PACKAGE + " = ?",
+        new String[]{targetPackage})) {
+      return PluginDatabaseHelper.PLUGIN_MAPPER.mapAll(cursor);
+    }
   }
+
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 插件和规则的变更事件流。PluginDatabaseHelper和PluginRuleDatabaseHelper写库成功后发布事件，
+ * 界面订阅后只更新变化的行，不必在每次onResume时全量重新查询。
+ * 事件按发布顺序在后台线程上分发，监听者需要自行切换到主线程更新界面。
+ */
+public final class PluginStore {
+
+  private static final String TAG = "PluginStore";
+
+  public enum ChangeType {
+    ADDED,
+    REMOVED,
+    ENABLED,
+    PARAMS_CHANGED,
+    RULES_CHANGED
+  }
+
+  public static final class Change {
+    public final ChangeType type;
+    public final String packageName;
+
+    Change(ChangeType type, String packageName) {
+      this.type = type;
+      this.packageName = packageName;
+    }
+  }
+
+  public interface Listener {
+    void onPluginChanged(Change change);
+  }
+
+  private static final PluginStore instance = new PluginStore();
+
+  private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "plugin-store");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private PluginStore() {
+  }
+
+  public static PluginStore getInstance() {
+    return instance;
+  }
+
+  public void subscribe(Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public void unsubscribe(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  void publish(ChangeType type, String packageName) {
+    if (listeners.isEmpty())
+      return;
+    Change change = new Change(type, packageName);
+    dispatcher.execute(() -> {
+      for (Listener listener : listeners) {
+        try {
+          listener.onPluginChanged(change);
+        } catch (Exception e) {
+          Log.e(TAG, "分发插件变更失败", e);
+        }
+      }
+    });
+  }
+}
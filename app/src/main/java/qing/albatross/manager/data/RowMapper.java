@@ -0,0 +1,84 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 游标行映射：查询只取columns中的列，每个游标只解析一次列索引，
+ * map按索引数组读取，不再逐行逐列调用getColumnIndexOrThrow。
+ */
+abstract class RowMapper<T> {
+
+  private final String[] columns;
+
+  RowMapper(String... columns) {
+    this.columns = columns;
+  }
+
+  /**
+   * 查询使用的投影
+   */
+  String[] projection() {
+    return columns;
+  }
+
+  /**
+   * 联表查询使用的列清单，如"p._id, p.name"
+   */
+  String select(String alias) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0)
+        sb.append(", ");
+      sb.append(alias).append('.').append(columns[i]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * 解析列索引，结果下标与columns一致
+   */
+  int[] resolve(Cursor cursor) {
+    int[] indices = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      indices[i] = cursor.getColumnIndexOrThrow(columns[i]);
+    }
+    return indices;
+  }
+
+  abstract T map(Cursor cursor, int[] indices);
+
+  List<T> mapAll(Cursor cursor) {
+    List<T> result = new ArrayList<>(Math.max(cursor.getCount(), 0));
+    if (!cursor.moveToFirst())
+      return result;
+    int[] indices = resolve(cursor);
+    do {
+      result.add(map(cursor, indices));
+    } while (cursor.moveToNext());
+    return result;
+  }
+
+  T mapFirst(Cursor cursor) {
+    if (!cursor.moveToFirst())
+      return null;
+    return map(cursor, resolve(cursor));
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 进程内规则缓存：插件包名 -> 不可变的目标应用集合。
+ * 首次读取时整体加载一次，之后由PluginRuleDatabaseHelper在写库成功后同步更新，并通知观察者。
+ */
+public final class RuleCache {
+
+  /**
+   * 规则变化回调，在执行写入的线程上调用
+   */
+  public interface Observer {
+    void onRulesChanged(String pluginPackage, Set<String> targets);
+  }
+
+  private final PluginDatabaseHelper pluginDb;
+  private final Map<String, Set<String>> rules = new ConcurrentHashMap<>();
+  private final CopyOnWriteArrayList<Observer> observers = new CopyOnWriteArrayList<>();
+  private volatile boolean loaded;
+
+  RuleCache(PluginDatabaseHelper pluginDb) {
+    this.pluginDb = pluginDb;
+  }
+
+  public void addObserver(Observer observer) {
+    observers.addIfAbsent(observer);
+  }
+
+  public void removeObserver(Observer observer) {
+    observers.remove(observer);
+  }
+
+  /**
+   * 插件生效的目标应用，返回不可变集合
+   */
+  public Set<String> getTargets(String pluginPackage) {
+    ensureLoaded();
+    Set<String> targets = rules.get(pluginPackage);
+    return targets == null ? Collections.emptySet() : targets;
+  }
+
+  private void ensureLoaded() {
+    if (loaded)
+      return;
+    synchronized (this) {
+      if (loaded)
+        return;
+      Map<String, Set<String>> all = new HashMap<>();
+      SQLiteDatabase db = pluginDb.getReadableDatabase();
+      try (Cursor cursor = db.rawQuery("SELECT p." + PluginDatabaseHelper.COLUMN_PACKAGE + ", r." +
+          PluginRuleDatabaseHelper.COLUMN_TARGET_PACKAGE + " FROM " + PluginRuleDatabaseHelper.TABLE_RULES +
+          " r JOIN " + PluginDatabaseHelper.TABLE_PLUGINS + " p ON p." + PluginDatabaseHelper.COLUMN_ID +
+          " = r." + PluginRuleDatabaseHelper.COLUMN_PLUGIN_ID, null)) {
+        while (cursor.moveToNext()) {
+          Set<String> targets = all.get(cursor.getString(0));
+          if (targets == null) {
+            targets = new HashSet<>();
+            all.put(cursor.getString(0), targets);
+          }
+          targets.add(cursor.getString(1));
+        }
+      }
+      for (Map.Entry<String, Set<String>> entry : all.entrySet()) {
+        rules.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+      }
+      loaded = true;
+    }
+  }
+
+  void addTargets(String pluginPackage, Collection<String> targets) {
+    if (targets.isEmpty())
+      return;
+    update(pluginPackage, targets, true);
+  }
+
+  void removeTargets(String pluginPackage, Collection<String> targets) {
+    if (targets.isEmpty())
+      return;
+    update(pluginPackage, targets, false);
+  }
+
+  void removePlugin(String pluginPackage) {
+    Set<String> removed;
+    synchronized (this) {
+      if (!loaded)
+        return;
+      removed = rules.remove(pluginPackage);
+    }
+    if (removed != null)
+      notifyObservers(pluginPackage, Collections.emptySet());
+  }
+
+  private void update(String pluginPackage, Collection<String> targets, boolean add) {
+    Set<String> updated;
+    synchronized (this) {
+      // 未加载时无需维护，首次读取会从数据库加载最新状态。加载在锁内完成，不会漏掉并发的写入
+      if (!loaded)
+        return;
+      Set<String> current = rules.get(pluginPackage);
+      Set<String> copy = current == null ? new HashSet<>() : new HashSet<>(current);
+      boolean changed = add ? copy.addAll(targets) : copy.removeAll(targets);
+      if (!changed)
+        return;
+      updated = Collections.unmodifiableSet(copy);
+      if (updated.isEmpty())
+        rules.remove(pluginPackage);
+      else
+        rules.put(pluginPackage, updated);
+    }
+    notifyObservers(pluginPackage, updated);
+  }
+
+  private void notifyObservers(String pluginPackage, Set<String> targets) {
+    for (Observer observer : observers) {
+      observer.onRulesChanged(pluginPackage, targets);
+    }
+  }
+}
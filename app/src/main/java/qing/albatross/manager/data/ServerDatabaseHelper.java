@@ -19,19 +19,24 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import qing.albatross.manager.model.DeployArtifact;
 import qing.albatross.manager.model.ServerInfo;
 
 public class ServerDatabaseHelper extends SQLiteOpenHelper {
 
   private static final String DATABASE_NAME = "server_versions.db";
-  private static final int DATABASE_VERSION = 2; // 升级数据库版本
+  private static final int DATABASE_VERSION = 3; // 升级数据库版本
   private static ServerDatabaseHelper instance;
 
   // 读写锁，用于控制多线程访问
@@ -56,6 +61,71 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
   private static final String KEY_CURRENT_VERSION = "current_version";
   private static final String KEY_ROOT_PATH = "root_path";
 
+  // 部署清单表，记录rootPath下每个已部署文件对应的源文件指纹
+  private static final String TABLE_DEPLOY_MANIFEST = "deploy_manifest";
+  private static final String COLUMN_TARGET_PATH = "target_path";
+  private static final String COLUMN_SOURCE_PATH = "source_path";
+  private static final String COLUMN_MODE = "mode";
+  private static final String COLUMN_SHA256 = "sha256";
+  private static final String COLUMN_SIZE = "size";
+  private static final String COLUMN_MTIME = "mtime";
+
+  private static final RowMapper<ServerInfo> SERVER_MAPPER = new RowMapper<ServerInfo>(COLUMN_VERSION,
+      COLUMN_DESCRIPTION, COLUMN_PRIMARY_ARCH, COLUMN_SUPPORT_32BIT, COLUMN_SERVER_PATH, COLUMN_LIB_PATH,
+      COLUMN_LIB32_PATH, COLUMN_AGENT_PATH, COLUMN_IMPORT_TIME) {
+    @Override
+    ServerInfo map(Cursor cursor, int[] indices) {
+      ServerInfo serverInfo = new ServerInfo();
+      serverInfo.setVersion(cursor.getString(indices[0]));
+      serverInfo.setDescription(cursor.getString(indices[1]));
+      serverInfo.setPrimaryArchitecture(cursor.getString(indices[2]));
+      serverInfo.setSupport32Bit(cursor.getInt(indices[3]) == 1);
+      serverInfo.setServerPath(cursor.getString(indices[4]));
+      serverInfo.setLibPath(cursor.getString(indices[5]));
+      serverInfo.setLib32Path(cursor.getString(indices[6]));
+      serverInfo.setAgentPath(cursor.getString(indices[7]));
+      serverInfo.setImportTime(cursor.getLong(indices[8]));
+      return serverInfo;
+    }
+  };
+
+  private static final RowMapper<DeployArtifact> DEPLOY_MAPPER = new RowMapper<DeployArtifact>(COLUMN_TARGET_PATH,
+      COLUMN_VERSION, COLUMN_SOURCE_PATH, COLUMN_MODE, COLUMN_SHA256, COLUMN_SIZE, COLUMN_MTIME) {
+    @Override
+    DeployArtifact map(Cursor cursor, int[] indices) {
+      DeployArtifact artifact = new DeployArtifact();
+      artifact.setTargetPath(cursor.getString(indices[0]));
+      artifact.setVersion(cursor.getString(indices[1]));
+      artifact.setSourcePath(cursor.getString(indices[2]));
+      artifact.setMode(cursor.getString(indices[3]));
+      artifact.setSha256(cursor.getString(indices[4]));
+      artifact.setSize(cursor.getLong(indices[5]));
+      artifact.setMtime(cursor.getLong(indices[6]));
+      return artifact;
+    }
+  };
+
+  // 预编译的单值查询，SQLiteStatement不是线程安全的，使用时对其加锁
+  private SQLiteStatement configQuery;
+  private SQLiteStatement versionExistsQuery;
+
+  /**
+   * 配置快照：根目录、当前版本及其信息。首次读取时加载，写入配置后整体替换，读取不加锁
+   */
+  private static final class ConfigSnapshot {
+    final String rootPath;
+    final String currentVersion;
+    final ServerInfo currentServerInfo;
+
+    ConfigSnapshot(String rootPath, String currentVersion, ServerInfo currentServerInfo) {
+      this.rootPath = rootPath;
+      this.currentVersion = currentVersion;
+      this.currentServerInfo = currentServerInfo;
+    }
+  }
+
+  private volatile ConfigSnapshot snapshot;
+
   private ServerDatabaseHelper(Context context) {
     super(context, DATABASE_NAME, null, DATABASE_VERSION);
   }
@@ -87,6 +157,18 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
         COLUMN_CONFIG_KEY + " TEXT PRIMARY KEY, " +
         COLUMN_CONFIG_VALUE + " TEXT)";
     db.execSQL(createConfigTable);
+    createDeployManifestTable(db);
+  }
+
+  private void createDeployManifestTable(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_DEPLOY_MANIFEST + " (" +
+        COLUMN_TARGET_PATH + " TEXT PRIMARY KEY, " +
+        COLUMN_VERSION + " TEXT, " +
+        COLUMN_SOURCE_PATH + " TEXT NOT NULL, " +
+        COLUMN_MODE + " TEXT, " +
+        COLUMN_SHA256 + " TEXT NOT NULL, " +
+        COLUMN_SIZE + " INTEGER DEFAULT 0, " +
+        COLUMN_MTIME + " INTEGER DEFAULT 0)");
   }
 
   @Override
@@ -96,6 +178,9 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
       db.execSQL("ALTER TABLE " + TABLE_SERVER_VERSIONS +
           " ADD COLUMN " + COLUMN_DESCRIPTION + " TEXT");
     }
+    if (oldVersion < 3) {
+      createDeployManifestTable(db);
+    }
   }
 
   /**
@@ -124,6 +209,9 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
       if (setAsCurrent) {
         setCurrentServerVersionInternal(serverInfo.getVersion(), db);
       }
+      // 覆盖导入当前版本时信息也会变化
+      if (setAsCurrent || snapshot != null && serverInfo.getVersion().equals(snapshot.currentVersion))
+        refreshSnapshot();
     } finally {
       lock.writeLock().unlock();
     }
@@ -135,75 +223,26 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
   public List<ServerInfo> getAllServerVersions() {
     lock.readLock().lock();
     try {
-      List<ServerInfo> versions = new ArrayList<>();
-      String selectQuery = "SELECT * FROM " + TABLE_SERVER_VERSIONS +
-          " ORDER BY " + COLUMN_IMPORT_TIME + " DESC";
-
       SQLiteDatabase db = this.getReadableDatabase();
-      Cursor cursor = db.rawQuery(selectQuery, null);
-
-      if (cursor.moveToFirst()) {
-        do {
-          ServerInfo serverInfo = new ServerInfo();
-          serverInfo.setVersion(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_VERSION)));
-          serverInfo.setDescription(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DESCRIPTION))); // 读取描述
-          serverInfo.setPrimaryArchitecture(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PRIMARY_ARCH)));
-          serverInfo.setSupport32Bit(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_SUPPORT_32BIT)) == 1);
-          serverInfo.setServerPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SERVER_PATH)));
-          serverInfo.setLibPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LIB_PATH)));
-          serverInfo.setLib32Path(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LIB32_PATH)));
-          serverInfo.setAgentPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AGENT_PATH)));
-          serverInfo.setImportTime(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_IMPORT_TIME)));
-
-          versions.add(serverInfo);
-        } while (cursor.moveToNext());
+      try (Cursor cursor = db.query(TABLE_SERVER_VERSIONS, SERVER_MAPPER.projection(), null, null,
+          null, null, COLUMN_IMPORT_TIME + " DESC")) {
+        return SERVER_MAPPER.mapAll(cursor);
       }
-
-      cursor.close();
-      return versions;
     } finally {
       lock.readLock().unlock();
     }
   }
 
+
   /**
-   * 获取当前使用的服务版本信息（包含描述）
+   * 获取当前使用的服务版本信息（包含描述），返回快照的副本，调用方修改不影响缓存
    */
   public ServerInfo getCurrentServerInfo() {
-    lock.readLock().lock();
-    try {
-      String currentVersion = getCurrentServerVersionInternal();
-      if (currentVersion == null) return null;
+    ServerInfo info = snapshot().currentServerInfo;
+    return info == null ? null : new ServerInfo(info);
+  }
 
-      SQLiteDatabase db = this.getReadableDatabase();
-      Cursor cursor = db.query(
-          TABLE_SERVER_VERSIONS,
-          null,
-          COLUMN_VERSION + " = ?",
-          new String[]{currentVersion},
-          null, null, null
-      );
-
-      ServerInfo serverInfo = null;
-      if (cursor.moveToFirst()) {
-        serverInfo = new ServerInfo();
-        serverInfo.setVersion(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_VERSION)));
-        serverInfo.setDescription(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DESCRIPTION))); // 读取描述
-        serverInfo.setPrimaryArchitecture(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PRIMARY_ARCH)));
-        serverInfo.setSupport32Bit(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_SUPPORT_32BIT)) == 1);
-        serverInfo.setServerPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SERVER_PATH)));
-        serverInfo.setLibPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LIB_PATH)));
-        serverInfo.setLib32Path(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LIB32_PATH)));
-        serverInfo.setAgentPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AGENT_PATH)));
-        serverInfo.setImportTime(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_IMPORT_TIME)));
-      }
 
-      cursor.close();
-      return serverInfo;
-    } finally {
-      lock.readLock().unlock();
-    }
-  }
 
   // 其他方法保持不变...
   public void setCurrentServerVersion(String version) {
@@ -211,6 +250,7 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
     try {
       SQLiteDatabase db = this.getWritableDatabase();
       setCurrentServerVersionInternal(version, db);
+      refreshSnapshot();
     } finally {
       lock.writeLock().unlock();
     }
@@ -230,60 +270,108 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
   }
 
   public String getCurrentServerVersion() {
+    return snapshot().currentVersion;
+  }
+
+
+  private ConfigSnapshot snapshot() {
+    ConfigSnapshot current = snapshot;
+    if (current != null)
+      return current;
     lock.readLock().lock();
     try {
-      return getCurrentServerVersionInternal();
+      synchronized (this) {
+        if (snapshot == null)
+          snapshot = loadSnapshot();
+        return snapshot;
+      }
     } finally {
       lock.readLock().unlock();
     }
   }
 
   /**
-   * 内部方法：获取当前服务器版本（不获取锁，供内部调用）
+   * 写入配置后重新加载快照，调用方需持有写锁
    */
-  private String getCurrentServerVersionInternal() {
-    SQLiteDatabase db = this.getReadableDatabase();
-    Cursor cursor = db.query(
-        TABLE_CONFIG,
-        new String[]{COLUMN_CONFIG_VALUE},
-        COLUMN_CONFIG_KEY + " = ?",
-        new String[]{KEY_CURRENT_VERSION},
-        null, null, null
-    );
-
-    String version = null;
-    if (cursor.moveToFirst()) {
-      version = cursor.getString(0);
+  private void refreshSnapshot() {
+    synchronized (this) {
+      snapshot = loadSnapshot();
     }
-
-    cursor.close();
-    return version;
   }
 
-  public boolean checkVersionExists(String version) {
-    lock.readLock().lock();
-    try {
+  private ConfigSnapshot loadSnapshot() {
+    String rootPath = queryConfig(KEY_ROOT_PATH);
+    if (rootPath == null)
+      rootPath = "/data/local/tmp/albatross/";
+    String currentVersion = queryConfig(KEY_CURRENT_VERSION);
+    ServerInfo currentServerInfo = null;
+    if (currentVersion != null) {
       SQLiteDatabase db = this.getReadableDatabase();
-      Cursor cursor = db.query(
+      try (Cursor cursor = db.query(
           TABLE_SERVER_VERSIONS,
-          new String[]{COLUMN_VERSION},
+          SERVER_MAPPER.projection(),
           COLUMN_VERSION + " = ?",
-          new String[]{version},
+          new String[]{currentVersion},
           null, null, null
-      );
-      boolean exists = cursor.getCount() > 0;
-      cursor.close();
-      return exists;
+      )) {
+        currentServerInfo = SERVER_MAPPER.mapFirst(cursor);
+      }
+    }
+    return new ConfigSnapshot(rootPath, currentVersion, currentServerInfo);
+  }
+
+
+  /**
+   * 读取配置项，不存在时返回null
+   */
+  private String queryConfig(String key) {
+    SQLiteStatement statement;
+    synchronized (this) {
+      if (configQuery == null) {
+        configQuery = getReadableDatabase().compileStatement("SELECT " + COLUMN_CONFIG_VALUE + " FROM " +
+            TABLE_CONFIG + " WHERE " + COLUMN_CONFIG_KEY + " = ?");
+      }
+      statement = configQuery;
+    }
+    synchronized (statement) {
+      statement.bindString(1, key);
+      try {
+        return statement.simpleQueryForString();
+      } catch (SQLiteDoneException e) {
+        return null;
+      }
+    }
+  }
+
+
+  public boolean checkVersionExists(String version) {
+    lock.readLock().lock();
+    try {
+      SQLiteStatement statement;
+      synchronized (this) {
+        if (versionExistsQuery == null) {
+          versionExistsQuery = getReadableDatabase().compileStatement("SELECT COUNT(*) FROM " +
+              TABLE_SERVER_VERSIONS + " WHERE " + COLUMN_VERSION + " = ?");
+        }
+        statement = versionExistsQuery;
+      }
+      synchronized (statement) {
+        statement.bindString(1, version);
+        return statement.simpleQueryForLong() > 0;
+      }
     } finally {
       lock.readLock().unlock();
     }
   }
 
+
   public void deleteServerVersion(String version) {
     lock.writeLock().lock();
     try {
       SQLiteDatabase db = this.getWritableDatabase();
       db.delete(TABLE_SERVER_VERSIONS, COLUMN_VERSION + " = ?", new String[]{version});
+      if (snapshot != null && version.equals(snapshot.currentVersion))
+        refreshSnapshot();
     } finally {
       lock.writeLock().unlock();
     }
@@ -294,47 +382,104 @@ public class ServerDatabaseHelper extends SQLiteOpenHelper {
     try {
       if (!path.endsWith("/"))
         path += "/";
+      // 部署目录变化后旧清单对应的文件不再使用
+      if (!path.equals(snapshot().rootPath))
+        clearDeployManifest();
       SQLiteDatabase db = this.getWritableDatabase();
       ContentValues values = new ContentValues();
       values.put(COLUMN_CONFIG_KEY, KEY_ROOT_PATH);
       values.put(COLUMN_CONFIG_VALUE, path);
       db.insertWithOnConflict(TABLE_CONFIG, null, values,
           SQLiteDatabase.CONFLICT_REPLACE);
+      refreshSnapshot();
     } finally {
       lock.writeLock().unlock();
     }
   }
 
   public String getRootPath() {
+    return snapshot().rootPath;
+  }
+
+
+
+  /**
+   * 获取部署清单，key为目标路径
+   */
+  public Map<String, DeployArtifact> getDeployManifest() {
     lock.readLock().lock();
     try {
+      Map<String, DeployArtifact> manifest = new HashMap<>();
       SQLiteDatabase db = this.getReadableDatabase();
-      Cursor cursor = db.query(
-          TABLE_CONFIG,
-          new String[]{COLUMN_CONFIG_VALUE},
-          COLUMN_CONFIG_KEY + " = ?",
-          new String[]{KEY_ROOT_PATH},
-          null, null, null
-      );
-      String path = null;
-      if (cursor.moveToFirst()) {
-        path = cursor.getString(0);
-      } else {
-        path = "/data/local/tmp/albatross/";
+      try (Cursor cursor = db.query(TABLE_DEPLOY_MANIFEST, DEPLOY_MAPPER.projection(), null, null, null, null, null)) {
+        for (DeployArtifact artifact : DEPLOY_MAPPER.mapAll(cursor)) {
+          manifest.put(artifact.getTargetPath(), artifact);
+        }
       }
-      cursor.close();
-      return path;
+      return manifest;
     } finally {
       lock.readLock().unlock();
     }
   }
 
+
+  /**
+   * 部署成功后写入清单，同一目标路径的旧记录会被替换
+   */
+  public void saveDeployManifest(List<DeployArtifact> artifacts) {
+    lock.writeLock().lock();
+    try {
+      SQLiteDatabase db = this.getWritableDatabase();
+      db.beginTransaction();
+      try {
+        for (DeployArtifact artifact : artifacts) {
+          ContentValues values = new ContentValues();
+          values.put(COLUMN_TARGET_PATH, artifact.getTargetPath());
+          values.put(COLUMN_VERSION, artifact.getVersion());
+          values.put(COLUMN_SOURCE_PATH, artifact.getSourcePath());
+          values.put(COLUMN_MODE, artifact.getMode());
+          values.put(COLUMN_SHA256, artifact.getSha256());
+          values.put(COLUMN_SIZE, artifact.getSize());
+          values.put(COLUMN_MTIME, artifact.getMtime());
+          db.insertWithOnConflict(TABLE_DEPLOY_MANIFEST, null, values,
+              SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * 清空部署清单，下次启动时重新复制全部文件。Root路径变化时调用
+   */
+  public void clearDeployManifest() {
+    lock.writeLock().lock();
+    try {
+      SQLiteDatabase db = this.getWritableDatabase();
+      db.delete(TABLE_DEPLOY_MANIFEST, null, null);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
   /**
    * 关闭数据库连接（谨慎使用，通常不需要手动调用）
    */
   public synchronized void closeDatabase() {
     if (instance != null) {
       try {
+        if (configQuery != null) {
+          configQuery.close();
+          configQuery = null;
+        }
+        if (versionExistsQuery != null) {
+          versionExistsQuery.close();
+          versionExistsQuery = null;
+        }
         SQLiteDatabase db = getWritableDatabase();
         if (db.isOpen()) {
           db.close();
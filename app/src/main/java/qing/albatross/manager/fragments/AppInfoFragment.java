@@ -21,6 +21,7 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,10 +37,14 @@ import androidx.fragment.app.Fragment;
 
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 import qing.albatross.manager.activity.AppDetailActivity;
+import qing.albatross.manager.data.Plugin;
+import qing.albatross.manager.data.PluginRuleDatabaseHelper;
 import qing.albatross.manager.utils.AppUtils;
 import qing.albatross.manager.utils.BackupManager;
 import qing.albatross.manager.R;
@@ -60,6 +65,7 @@ public class AppInfoFragment extends Fragment {
   private TextView tvFreezeStatusValue;
   private TextView tvSignatureValue;
   private TextView tvProcessesValue;
+  private TextView tvActivePluginsValue;
   private Button btnOpenApp;
   private Button btnCloseApp;
   private Button btnFreezeApp;
@@ -121,6 +127,7 @@ public class AppInfoFragment extends Fragment {
     tvFreezeStatusValue = view.findViewById(R.id.tv_freeze_status_value);
     tvSignatureValue = view.findViewById(R.id.tv_signature_value);
     tvProcessesValue = view.findViewById(R.id.tv_processes_value);
+    tvActivePluginsValue = view.findViewById(R.id.tv_active_plugins_value);
     btnOpenApp = view.findViewById(R.id.btn_open_app);
     btnCloseApp = view.findViewById(R.id.btn_close_app);
     btnFreezeApp = view.findViewById(R.id.btn_freeze_app);
@@ -194,6 +201,8 @@ public class AppInfoFragment extends Fragment {
         tvProcessesValue.setText(processes);
       });
     }).start();
+    // 对该应用生效的插件
+    loadActivePlugins();
     // 应用类型
     String appType = (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0 ?
         getString(R.string.system_app) : getString(R.string.user_app);
@@ -272,6 +281,27 @@ public class AppInfoFragment extends Fragment {
     btnRestoreApp.setOnClickListener(v -> showPasswordDialog(false));
   }
 
+  /**
+   * 查询对该应用生效的已启用插件
+   */
+  private void loadActivePlugins() {
+    new Thread(() -> {
+      List<Plugin> plugins = PluginRuleDatabaseHelper.getInstance(requireContext()).getPluginsForTarget(packageName);
+      List<String> names = new ArrayList<>();
+      for (Plugin plugin : plugins) {
+        if (plugin.isEnabled())
+          names.add(plugin.getName());
+      }
+      if (getActivity() == null)
+        return;
+      requireActivity().runOnUiThread(() -> {
+        if (tvActivePluginsValue == null)
+          return;
+        tvActivePluginsValue.setText(names.isEmpty() ? getString(R.string.no_active_plugins) : TextUtils.join("\n", names));
+      });
+    }).start();
+  }
+
   /**
    * 刷新进程信息
    */
@@ -397,6 +427,7 @@ public class AppInfoFragment extends Fragment {
     tvFreezeStatusValue = null;
     tvSignatureValue = null;
     tvProcessesValue = null;
+    tvActivePluginsValue = null;
     btnOpenApp = null;
     btnCloseApp = null;
     btnFreezeApp = null;
@@ -16,9 +16,6 @@
 package qing.albatross.manager.fragments;
 
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -41,7 +38,8 @@ import qing.albatross.manager.R;
 import qing.albatross.manager.activity.AppDetailActivity;
 import qing.albatross.manager.activity.MainActivity;
 import qing.albatross.manager.adapter.AppListAdapter;
-import qing.albatross.manager.data.AppInfo;
+import qing.albatross.manager.data.AppCatalog;
+import qing.albatross.manager.model.AppInfo;
 
 public class AppListFragment extends Fragment {
     private RecyclerView recyclerView;
@@ -49,6 +47,8 @@ public class AppListFragment extends Fragment {
     private View layoutEmpty;
     private AppListAdapter adapter;
     private List<AppInfo> appList;
+    // 磁盘快照校验完成或应用安装/卸载后刷新列表
+    private final AppCatalog.Listener catalogListener = this::loadAppList;
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
@@ -74,11 +74,24 @@ public class AppListFragment extends Fragment {
         recyclerView.setAdapter(adapter);
         
         // 加载应用列表
+        AppCatalog.getInstance(requireContext()).addListener(catalogListener);
         loadAppList();
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        AppCatalog.getInstance(requireContext()).removeListener(catalogListener);
+    }
+
     private void loadAppList() {
-        progressBar.setVisibility(View.VISIBLE);
+        MainActivity host = (MainActivity) getActivity();
+        if (host == null)
+            return;
+        host.runOnUiThread(() -> {
+            if (appList.isEmpty())
+                progressBar.setVisibility(View.VISIBLE);
+        });
         
         // 在后台线程加载应用列表
         new Thread(() -> {
@@ -111,25 +124,11 @@ public class AppListFragment extends Fragment {
 
     private List<AppInfo> getInstalledApps() {
         List<AppInfo> apps = new ArrayList<>();
-        PackageManager pm = getContext().getPackageManager();
-        
         try {
-            List<PackageInfo> packages = pm.getInstalledPackages(PackageManager.GET_META_DATA);
-            for (PackageInfo packageInfo : packages) {
-                ApplicationInfo appInfo = packageInfo.applicationInfo;
-                // 过滤掉系统应用（可选）
-                if ((appInfo.flags & ApplicationInfo.FLAG_SYSTEM) == 0) {
-                    AppInfo app = new AppInfo();
-                    app.setPackageName(packageInfo.packageName);
-                    app.setAppName(pm.getApplicationLabel(appInfo).toString());
-                    app.setVersionName(packageInfo.versionName);
-                    app.setVersionCode(packageInfo.versionCode);
-                    app.setIcon(pm.getApplicationIcon(appInfo));
-                    app.setInstallTime(packageInfo.firstInstallTime);
-                    app.setUpdateTime(packageInfo.lastUpdateTime);
-                    app.setSystemApp((appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0);
-                    apps.add(app);
-                }
+            // 过滤掉系统应用（可选）
+            for (AppCatalog.Entry entry : AppCatalog.getInstance(getContext()).getApps(AppCatalog.Filter.USER)) {
+                AppInfo app = new AppInfo(entry);
+                apps.add(app);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -17,6 +17,8 @@ package qing.albatross.manager.fragments;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -25,6 +27,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -35,6 +38,8 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import qing.albatross.manager.R;
 import qing.albatross.manager.activity.PluginDetailActivity;
@@ -42,6 +47,8 @@ import qing.albatross.manager.activity.PluginListActivity;
 import qing.albatross.manager.adapter.PluginAdapter;
 import qing.albatross.manager.data.Plugin;
 import qing.albatross.manager.data.PluginDatabaseHelper;
+import qing.albatross.manager.data.PluginMutationQueue;
+import qing.albatross.manager.data.PluginStore;
 
 public class PluginManagerFragment extends Fragment {
 
@@ -51,6 +58,43 @@ public class PluginManagerFragment extends Fragment {
 //  private Button btnAddPlugin;
 
   private PluginDatabaseHelper dbHelper;
+  private PluginMutationQueue mutationQueue;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  // 插件变更只刷新对应的行，取代每次onResume的全量加载
+  private final PluginStore.Listener storeListener = change -> {
+    if (change.type == PluginStore.ChangeType.RULES_CHANGED)
+      return;
+    Plugin plugin = change.type == PluginStore.ChangeType.REMOVED ? null : dbHelper.getPluginWithParams(change.packageName);
+    handler.post(() -> {
+      if (pluginAdapter == null)
+        return;
+      if (plugin == null)
+        pluginAdapter.removePlugin(change.packageName);
+      else
+        pluginAdapter.upsertPlugin(plugin);
+      updateEmptyState();
+    });
+  };
+
+  // 变更失败时提示并从数据库恢复该行
+  private final PluginMutationQueue.Callback mutationCallback = (packageName, success) -> {
+    if (success || pluginAdapter == null)
+      return;
+    Toast.makeText(requireContext(), R.string.plugin_state_update_failed, Toast.LENGTH_SHORT).show();
+    executor.execute(() -> {
+      Plugin plugin = dbHelper.getPluginWithParams(packageName);
+      handler.post(() -> {
+        if (pluginAdapter == null)
+          return;
+        if (plugin == null)
+          pluginAdapter.removePlugin(packageName);
+        else
+          pluginAdapter.upsertPlugin(plugin);
+        updateEmptyState();
+      });
+    });
+  };
 
   @Nullable
   @Override
@@ -84,9 +128,11 @@ public class PluginManagerFragment extends Fragment {
     setupActionBar();
     // 初始化数据库
     dbHelper = PluginDatabaseHelper.getInstance(requireContext());
+    mutationQueue = PluginMutationQueue.getInstance(requireContext());
     // 初始化列表
     initRecyclerView();
-    // 加载插件数据
+    // 加载插件数据，之后的变化由PluginStore推送
+    PluginStore.getInstance().subscribe(storeListener);
     loadPlugins();
 
   }
@@ -94,15 +140,13 @@ public class PluginManagerFragment extends Fragment {
   private void initRecyclerView() {
     recyclerView.setLayoutManager(new LinearLayoutManager(requireContext()));
     pluginAdapter = new PluginAdapter(plugin -> {
-      // 切换插件启用状态
+      // 切换插件启用状态，写库和推送在变更队列中执行，连续切换只执行最后一次
       boolean newState = !plugin.isEnabled();
-      dbHelper.updatePluginState(plugin, newState);
       plugin.setEnabled(newState);
-      pluginAdapter.notifyDataSetChanged();
+      mutationQueue.setEnabled(plugin.getPackageName(), newState, mutationCallback);
     }, plugin -> {
-      // 删除插件
-      dbHelper.deletePlugin(plugin);
-      loadPlugins();
+      // 删除插件，列表由变更事件更新
+      mutationQueue.delete(plugin.getPackageName(), mutationCallback);
     }, plugin -> {
       Intent intent = new Intent(requireContext(), PluginDetailActivity.class);
       // 传递插件包名作为参数
@@ -113,14 +157,24 @@ public class PluginManagerFragment extends Fragment {
   }
 
   private void loadPlugins() {
-    List<Plugin> plugins = dbHelper.getAllPlugins();
-    if (plugins.isEmpty()) {
+    executor.execute(() -> {
+      List<Plugin> plugins = dbHelper.getAllPlugins();
+      handler.post(() -> {
+        if (pluginAdapter == null)
+          return;
+        pluginAdapter.setPlugins(plugins);
+        updateEmptyState();
+      });
+    });
+  }
+
+  private void updateEmptyState() {
+    if (pluginAdapter.getItemCount() == 0) {
       recyclerView.setVisibility(View.GONE);
       tvEmptyState.setVisibility(View.VISIBLE);
     } else {
       recyclerView.setVisibility(View.VISIBLE);
       tvEmptyState.setVisibility(View.GONE);
-      pluginAdapter.setPlugins(plugins);
     }
   }
   @Override
@@ -145,9 +199,17 @@ public class PluginManagerFragment extends Fragment {
 
 
   @Override
-  public void onResume() {
-    super.onResume();
-    // 从添加插件页面返回时刷新列表
-    loadPlugins();
+  public void onDestroyView() {
+    super.onDestroyView();
+    PluginStore.getInstance().unsubscribe(storeListener);
+    // 队列是单例，解除回调以免持有已销毁的Fragment
+    mutationQueue.removeCallback(mutationCallback);
+    pluginAdapter = null;
+  }
+
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    executor.shutdown();
   }
 }
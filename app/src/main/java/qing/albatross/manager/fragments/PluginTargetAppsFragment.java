@@ -17,9 +17,9 @@ package qing.albatross.manager.fragments;
 
 import static qing.albatross.manager.data.Const.PKG_SYSTEM_SERVER;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.text.Editable;
@@ -44,7 +44,10 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -54,6 +57,7 @@ import qing.albatross.manager.adapter.AppSelectAdapter;
 import qing.albatross.manager.data.Plugin;
 import qing.albatross.manager.data.PluginRuleDatabaseHelper;
 import qing.albatross.manager.model.AppInfo;
+import qing.albatross.manager.plugin.AsyncPluginDelegate;
 import qing.albatross.manager.plugin.PluginDelegate;
 import qing.albatross.manager.utils.AppUtils;
 import qing.albatross.manager.utils.ServerManager;
@@ -137,12 +141,18 @@ public class PluginTargetAppsFragment extends Fragment {
         if (isRunning) {
           try {
             ApplicationInfo targetInfo = getContext().getPackageManager().getApplicationInfo(pluginPackage, 0);
-            String res = PluginDelegate.injectPlugin(appInfo.getPackageName(), targetInfo.sourceDir, plugin.getClassName(), plugin.getParams(), plugin.getFlags());
-            if (res == null) {
-              Toast.makeText(getContext(), getString(R.string.injection_successful), Toast.LENGTH_SHORT).show();
-            } else {
-              Toast.makeText(getContext(), res, Toast.LENGTH_LONG).show();
-            }
+            AsyncPluginDelegate.inject(appInfo.getPackageName(), targetInfo.sourceDir, plugin.getClassName(), plugin.getParams(), plugin.getFlags())
+                .whenCompleteAsync((res, error) -> {
+                  if (!isAdded())
+                    return;
+                  if (error != null) {
+                    Toast.makeText(getContext(), "err " + error.getMessage(), Toast.LENGTH_LONG).show();
+                  } else if (res == null) {
+                    Toast.makeText(getContext(), getString(R.string.injection_successful), Toast.LENGTH_SHORT).show();
+                  } else {
+                    Toast.makeText(getContext(), res, Toast.LENGTH_LONG).show();
+                  }
+                }, AsyncPluginDelegate.MAIN_THREAD);
           } catch (PackageManager.NameNotFoundException e) {
             Toast.makeText(getContext(), getString(R.string.get_plugin_info_failed), Toast.LENGTH_LONG).show();
           }
@@ -153,18 +163,16 @@ public class PluginTargetAppsFragment extends Fragment {
 
       @Override
       public void disablePlugin(AppInfo appInfo) {
-        PluginDelegate delegate = PluginDelegate.get();
-        if (delegate != null) {
-          delegate.deletePluginRule(plugin.getId(), appInfo.getPackageName());
+        if (PluginDelegate.get() != null) {
+          AsyncPluginDelegate.deletePluginRule(plugin.getId(), appInfo.getPackageName());
         } else
           Toast.makeText(getContext(), getString(R.string.server_not_running), Toast.LENGTH_SHORT).show();
       }
 
       @Override
       public void closeApp(AppInfo appInfo) {
-        PluginDelegate delegate = PluginDelegate.get();
-        if (delegate != null) {
-          delegate.forceStopApp(appInfo.getPackageName());
+        if (PluginDelegate.get() != null) {
+          AsyncPluginDelegate.forceStopApp(appInfo.getPackageName());
         } else
           Toast.makeText(getContext(), getString(R.string.server_not_running), Toast.LENGTH_SHORT).show();
       }
@@ -206,24 +214,21 @@ public class PluginTargetAppsFragment extends Fragment {
       else {
         allApps = new ArrayList<>();
         String[] supportedApps = supportedAppsStr.split(",");
-        PackageManager packageManager = requireContext().getPackageManager();
         for (String pkg : supportedApps) {
           if (PKG_SYSTEM_SERVER.equals(pkg)) {
             AppInfo appInfo = AppInfo.getSystemServer();
             allApps.add(appInfo);
             showSystemApps = true;
           } else {
-            try {
-              PackageInfo packageInfo = packageManager.getPackageInfo(pkg, 0);
-              allApps.add(AppUtils.createAppInfo(requireContext(), packageInfo, packageManager));
-            } catch (PackageManager.NameNotFoundException ignore) {
-            }
+            AppInfo appInfo = AppUtils.createAppInfo(requireContext(), pkg);
+            if (appInfo != null)
+              allApps.add(appInfo);
           }
 
         }
       }
       // 获取已选中的应用
-      List<String> selectedPackages = ruleDb.getTargetPackages(pluginPackage);
+      Set<String> selectedPackages = ruleDb.getTargetSet(pluginPackage);
       // 标记已选中状态
       for (AppInfo app : allApps) {
         app.setSelected(selectedPackages.contains(app.getPackageName()));
@@ -241,7 +246,6 @@ public class PluginTargetAppsFragment extends Fragment {
   @Override
   public void onDestroy() {
     super.onDestroy();
-    ruleDb.close();
     executor.shutdown();
   }
 
@@ -320,18 +324,30 @@ public class PluginTargetAppsFragment extends Fragment {
   }
 
   private void selectAll(boolean select) {
+    // 在UI线程取快照，写库成功后只更新实际变更的应用
+    Map<String, AppInfo> candidates = new HashMap<>();
+    for (AppInfo app : filteredApps) {
+      if (app.isSelected() != select)
+        candidates.put(app.getPackageName(), app);
+    }
+    if (candidates.isEmpty())
+      return;
     executor.execute(() -> {
-      for (AppInfo app : filteredApps) {
-        if (app.isSelected() != select) {
-          app.setSelected(select);
-          if (select) {
-            ruleDb.addRule(plugin, app.getPackageName());
-          } else {
-            ruleDb.removeRule(plugin, app.getPackageName());
-          }
-        }
-      }
+      // 一个事务写入，规则变更作为一批发给服务端
+      List<String> changed = select ? ruleDb.addRules(plugin, candidates.keySet())
+          : ruleDb.removeRules(plugin, candidates.keySet());
       recyclerView.post(() -> {
+        if (changed == null) {
+          Context context = getContext();
+          if (context != null)
+            Toast.makeText(context, getString(R.string.update_rules_failed), Toast.LENGTH_SHORT).show();
+          return;
+        }
+        for (String packageName : changed) {
+          AppInfo app = candidates.get(packageName);
+          if (app != null)
+            app.setSelected(select);
+        }
         adapter.notifyDataSetChanged();
       });
     });
@@ -15,6 +15,11 @@
  */
 package qing.albatross.manager.fragments;
 
+import android.app.AlertDialog;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -23,11 +28,15 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.fragment.app.Fragment;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.io.File;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -39,9 +48,11 @@ import qing.albatross.manager.data.ConfigManager;
 import qing.albatross.manager.data.ServerDatabaseHelper;
 import qing.albatross.manager.model.ServerInfo;
 import qing.albatross.manager.plugin.PluginDelegate;
-import qing.albatross.manager.utils.ClassLoaderUtils;
+import qing.albatross.manager.plugin.RpcMetrics;
+import qing.albatross.manager.utils.CoreLoader;
 import qing.albatross.manager.utils.SELinuxManager;
 import qing.albatross.manager.utils.ServerManager;
+import qing.albatross.manager.utils.StartupTracer;
 import qing.albatross.manager.utils.SystemUtils;
 
 public class ServerStatusFragment extends Fragment {
@@ -94,6 +105,7 @@ public class ServerStatusFragment extends Fragment {
     MainActivity mainActivity = (MainActivity) getActivity();
     assert mainActivity != null;
     mainActivity.setOnRefreshListener(() -> checkServerStatus(true));
+    view.findViewById(R.id.rpc_diagnostics_button).setOnClickListener(v -> showRpcDiagnostics());
     loadDeviceInfo(view);
 
     return view;
@@ -128,6 +140,7 @@ public class ServerStatusFragment extends Fragment {
     checkCoreButton.setEnabled(false);
     checkCoreButton.setText(getString(R.string.checking));
     executor.execute(() -> {
+      StartupTracer.begin("core_check");
       ServerInfo currentServerInfo = dbHelper.getCurrentServerInfo();
       serverInfo = currentServerInfo;
       String libPath = serverInfo.getLibPath();
@@ -139,13 +152,10 @@ public class ServerStatusFragment extends Fragment {
       String feature = null;
       String reason = null;
       if (agentDirFile.exists() && libFile.exists()) {
-        int i = libPath.lastIndexOf('/');
-        String libDir = libPath.substring(0, i);
-        String libName = libPath.substring(i + 4, libPath.length() - 3);
         try {
           try {
-            ClassLoaderUtils.patchClassLoader(this.getClass().getClassLoader(), dexPath, libDir);
-            isCoreAvailable = Albatross.loadLibrary(libName, 0);
+            // 重复检查时不会再次修补ClassLoader和加载so
+            isCoreAvailable = CoreLoader.load(this.getClass().getClassLoader(), dexPath, libPath);
           } catch (Throwable e) {
             reason = "init fail:" + e;
           }
@@ -163,6 +173,7 @@ public class ServerStatusFragment extends Fragment {
       } else {
         reason = "file not exists";
       }
+      StartupTracer.end(requireContext());
       // 在主线程更新UI
       String finalReason = reason;
       String finalFeature = feature;
@@ -174,6 +185,9 @@ public class ServerStatusFragment extends Fragment {
           if (finalFeature != null) {
             engineFeature.setText(finalFeature);
           }
+          if (CoreLoader.isRestartRequired()) {
+            Toast.makeText(requireContext(), getString(R.string.core_restart_required), Toast.LENGTH_LONG).show();
+          }
           checkServerStatus(false);
         } else {
           coreStatusText.setText(getString(R.string.core_not_supported));
@@ -209,6 +223,45 @@ public class ServerStatusFragment extends Fragment {
   }
 
 
+  /**
+   * 显示各RPC方法的延迟分位数和错误统计，可复制为JSON
+   */
+  private void showRpcDiagnostics() {
+    TextView content = new TextView(requireContext());
+    int padding = (int) (16 * getResources().getDisplayMetrics().density);
+    content.setPadding(padding, padding, padding, padding);
+    content.setTypeface(Typeface.MONOSPACE);
+    content.setTextIsSelectable(true);
+    StringBuilder text = new StringBuilder(RpcMetrics.isEmpty() ? getString(R.string.rpc_diagnostics_empty) : RpcMetrics.summary());
+    String startup = StartupTracer.summary(requireContext());
+    if (startup != null)
+      text.append('\n').append(getString(R.string.startup_timeline)).append('\n').append(startup);
+    content.setText(text);
+    ScrollView scrollView = new ScrollView(requireContext());
+    scrollView.addView(content);
+    new AlertDialog.Builder(requireContext())
+        .setTitle(getString(R.string.rpc_diagnostics))
+        .setView(scrollView)
+        .setPositiveButton(getString(R.string.copy_json), (dialog, which) -> {
+          try {
+            ClipboardManager clipboard = (ClipboardManager) requireContext().getSystemService(Context.CLIPBOARD_SERVICE);
+            clipboard.setPrimaryClip(ClipData.newPlainText("rpc_metrics", rpcDiagnosticsJson().toString(2)));
+            Toast.makeText(requireContext(), getString(R.string.rpc_metrics_copied), Toast.LENGTH_SHORT).show();
+          } catch (Exception e) {
+            Toast.makeText(requireContext(), e.toString(), Toast.LENGTH_SHORT).show();
+          }
+        })
+        .setNeutralButton(getString(R.string.reset_metrics), (dialog, which) -> RpcMetrics.reset())
+        .setNegativeButton(getString(R.string.close), (dialog, which) -> dialog.dismiss())
+        .show();
+  }
+
+  private JSONObject rpcDiagnosticsJson() throws JSONException {
+    JSONObject json = RpcMetrics.toJson();
+    json.put("startup_timelines", StartupTracer.load(requireContext()));
+    return json;
+  }
+
   private void loadDeviceInfo(View view) {
     TextView tvAndroidVersion = view.findViewById(R.id.tv_android_version);
     // 显示Android版本（主线程直接获取）
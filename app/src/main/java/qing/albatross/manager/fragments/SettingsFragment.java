@@ -50,6 +50,7 @@ import qing.albatross.manager.data.ServerDatabaseHelper;
 import qing.albatross.manager.model.ServerInfo;
 import qing.albatross.manager.utils.ArchitectureUtils;
 import qing.albatross.manager.utils.FileUtils;
+import qing.albatross.manager.utils.RootShell;
 import qing.albatross.manager.utils.ServerManager;
 import qing.albatross.manager.utils.ZipExtractor;
 
@@ -86,9 +87,19 @@ public class SettingsFragment extends Fragment implements ServerVersionAdapter.O
     Button btnImportServer = view.findViewById(R.id.btn_import_server);
     Button btnSuSave = view.findViewById(R.id.btn_save_su_path);
     Button btnSaveAddress = view.findViewById(R.id.btn_save_server_address);
+    EditText etReadyTimeout = view.findViewById(R.id.et_server_ready_timeout);
+    TextView tvLastReadyTime = view.findViewById(R.id.tv_last_server_ready_time);
+    Button btnSaveReadyTimeout = view.findViewById(R.id.btn_save_server_ready_timeout);
 
     ConfigManager configManager = ConfigManager.getInstance(getContext());
     etServerAddress.setText(configManager.getServerAddress());
+    etReadyTimeout.setText(String.valueOf(configManager.getServerReadyTimeout()));
+    long lastReadyTime = configManager.getLastServerReadyTime();
+    if (lastReadyTime >= 0)
+      tvLastReadyTime.setText(getString(R.string.last_server_ready_time_format, (int) lastReadyTime,
+          configManager.getLastServerReadyAttempts()));
+    else
+      tvLastReadyTime.setText(getString(R.string.last_server_ready_time_none));
 
     // 初始化列表
     rvServerVersions.setLayoutManager(new LinearLayoutManager(requireContext()));
@@ -108,9 +119,11 @@ public class SettingsFragment extends Fragment implements ServerVersionAdapter.O
     });
     btnSuSave.setOnClickListener(v -> {
       String string = etSuPath.getText().toString().trim();
-      if (string.length() > 1)
+      if (string.length() > 1) {
         configManager.saveSuFilePath(string);
-      else
+        // 已建立的会话仍使用旧的su
+        RootShell.getInstance().close();
+      } else
         Toast.makeText(requireContext(), getString(R.string.enter_correct_su_path), Toast.LENGTH_SHORT).show();
     });
     btnSaveAddress.setOnClickListener(v -> {
@@ -121,6 +134,18 @@ public class SettingsFragment extends Fragment implements ServerVersionAdapter.O
         Toast.makeText(requireContext(), getString(R.string.enter_correct_server_path), Toast.LENGTH_SHORT).show();
       }
     });
+    btnSaveReadyTimeout.setOnClickListener(v -> {
+      long timeout;
+      try {
+        timeout = Long.parseLong(etReadyTimeout.getText().toString().trim());
+      } catch (NumberFormatException e) {
+        timeout = -1;
+      }
+      if (configManager.saveServerReadyTimeout(timeout))
+        Toast.makeText(requireContext(), getString(R.string.server_ready_timeout_saved), Toast.LENGTH_SHORT).show();
+      else
+        Toast.makeText(requireContext(), getString(R.string.enter_correct_ready_timeout), Toast.LENGTH_SHORT).show();
+    });
 
     // 保存Root路径
     btnSaveRootPath.setOnClickListener(v -> {
@@ -17,9 +17,9 @@ package qing.albatross.manager.model;
 
 import static qing.albatross.manager.data.Const.PKG_SYSTEM_SERVER;
 
-import android.graphics.drawable.Drawable;
 import android.os.Build;
-import android.os.Bundle;
+
+import qing.albatross.manager.data.AppCatalog;
 
 /**
  * 应用信息数据模型，存储应用的基本信息和插件相关属性
@@ -28,20 +28,21 @@ public class AppInfo {
   private String packageName;       // 应用包名
   private String appName;          // 应用名称
   private String versionName;      // 应用版本
-  private Drawable appIcon;        // 应用图标
+  private int versionCode;
+  private long installTime;
+  private long updateTime;
   public boolean isPlugin;        // 是否为有效插件
   private boolean isAdded;         // 是否已添加到插件列表
-  public Bundle metaData;
   public boolean isSystem;
   public String sourceDex;
+  private AppCatalog.Entry entry;
 
 
   // 构造函数
-  public AppInfo(String packageName, String appName, String versionName, Drawable appIcon) {
+  public AppInfo(String packageName, String appName, String versionName) {
     this.packageName = packageName;
     this.appName = appName;
     this.versionName = versionName;
-    this.appIcon = appIcon;
     this.isPlugin = false;
     this.isAdded = false;
   }
@@ -49,6 +50,26 @@ public class AppInfo {
   public AppInfo() {
   }
 
+  /**
+   * 由应用目录中的条目创建，条目本身不可变，选中/已添加等页面状态保存在AppInfo上
+   */
+  public AppInfo(AppCatalog.Entry entry) {
+    this.entry = entry;
+    this.packageName = entry.packageName;
+    this.appName = entry.label;
+    this.versionName = entry.versionName;
+    this.versionCode = entry.versionCode;
+    this.installTime = entry.firstInstallTime;
+    this.updateTime = entry.lastUpdateTime;
+    this.isPlugin = entry.plugin;
+    this.isSystem = entry.isSystem();
+    this.sourceDex = entry.sourceDir;
+  }
+
+  public AppCatalog.Entry getEntry() {
+    return entry;
+  }
+
   // Getter和Setter方法
   public String getPackageName() {
     return packageName;
@@ -74,12 +95,16 @@ public class AppInfo {
     this.versionName = versionName;
   }
 
-  public Drawable getAppIcon() {
-    return appIcon;
+  public int getVersionCode() {
+    return versionCode;
+  }
+
+  public long getInstallTime() {
+    return installTime;
   }
 
-  public void setAppIcon(Drawable appIcon) {
-    this.appIcon = appIcon;
+  public long getUpdateTime() {
+    return updateTime;
   }
 
   public boolean isPlugin() {
@@ -31,6 +31,21 @@ public class ServerInfo {
 
   public ServerInfo() {}
 
+  /**
+   * 复制构造
+   */
+  public ServerInfo(ServerInfo other) {
+    this.version = other.version;
+    this.description = other.description;
+    this.primaryArchitecture = other.primaryArchitecture;
+    this.support32Bit = other.support32Bit;
+    this.serverPath = other.serverPath;
+    this.libPath = other.libPath;
+    this.lib32Path = other.lib32Path;
+    this.agentPath = other.agentPath;
+    this.importTime = other.importTime;
+  }
+
   // Getters and Setters
   public String getVersion() {
     return version;
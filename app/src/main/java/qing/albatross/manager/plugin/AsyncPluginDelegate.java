@@ -0,0 +1,244 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.plugin;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import qing.albatross.app.agent.client.ShellExecResult;
+import qing.albatross.manager.data.Plugin;
+import qing.albatross.manager.data.ServerDatabaseHelper;
+import qing.albatross.manager.utils.StartupTracer;
+
+/**
+ * PluginDelegate的异步门面：所有调用在专用的RPC线程上串行执行并返回CompletableFuture，
+ * 支持超时，UI线程不再阻塞在unix socket的往返上。连接和全量同步也经由同一线程执行（见runBlocking）。
+ * 超时从调用开始执行时计时；超时后调用仍在RPC线程上执行完，不会丢弃，服务端状态标记为未知，由下次同步对齐。
+ */
+public final class AsyncPluginDelegate {
+
+  private static final String TAG = "AsyncPluginDelegate";
+  public static final long DEFAULT_TIMEOUT_MS = 10000;
+  // 注入需要等待目标进程加载dex，给更长的超时
+  public static final long INJECT_TIMEOUT_MS = 30000;
+  // 重连包含建立连接和一次全量同步
+  public static final long CONNECT_TIMEOUT_MS = 60000;
+
+  /**
+   * 在主线程执行回调，配合thenAcceptAsync使用
+   */
+  public static final Executor MAIN_THREAD = new Executor() {
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(Runnable command) {
+      handler.post(command);
+    }
+  };
+
+  private static volatile Thread rpcThread;
+  private static final ExecutorService rpcExecutor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "albatross-rpc");
+    thread.setDaemon(true);
+    rpcThread = thread;
+    return thread;
+  });
+
+  private static final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "albatross-rpc-timeout");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * 在RPC线程上执行的调用，delegate为当前连接，未连接时不会被调用
+   */
+  public interface RpcCall<T> {
+    T call(PluginDelegate delegate) throws Exception;
+  }
+
+  private AsyncPluginDelegate() {
+  }
+
+  /**
+   * 提交一次RPC调用
+   *
+   * @param fallback 服务未连接时的返回值
+   */
+  public static <T> CompletableFuture<T> call(String name, long timeoutMs, T fallback, RpcCall<T> rpc) {
+    return submit(name, timeoutMs, () -> {
+      PluginDelegate delegate = PluginDelegate.get();
+      return delegate == null ? fallback : rpc.call(delegate);
+    });
+  }
+
+  private static <T> CompletableFuture<T> submit(String name, long timeoutMs, Callable<T> work) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    rpcExecutor.execute(() -> {
+      if (result.isDone()) {
+        // 调用方在执行前取消，对应的数据库写入可能已经提交
+        invalidateState();
+        return;
+      }
+      // 排队等待的时间不计入超时
+      ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+        if (result.completeExceptionally(new TimeoutException(name + " 超时 " + timeoutMs + "ms"))) {
+          Log.w(TAG, name + " 超时，服务端状态标记为未知");
+          invalidateState();
+        }
+      }, timeoutMs, TimeUnit.MILLISECONDS);
+      try {
+        result.complete(work.call());
+      } catch (Throwable e) {
+        Log.e(TAG, name + " 调用失败", e);
+        result.completeExceptionally(e);
+      } finally {
+        timeout.cancel(false);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * 调用结果对调用方不可见时，服务端与数据库可能不一致，下次同步时全量对齐
+   */
+  private static void invalidateState() {
+    PluginDelegate delegate = PluginDelegate.get();
+    if (delegate != null)
+      delegate.state.invalidate();
+  }
+
+  /**
+   * 在RPC线程上执行并阻塞等待结果，已在RPC线程上时直接执行。
+   * 用于PluginDelegate的连接和全量同步，保证所有RPC都在同一线程上串行。调用线程的启动时间线随任务传递
+   */
+  static <T> T runBlocking(String name, T fallback, Callable<T> work) {
+    try {
+      if (Thread.currentThread() == rpcThread)
+        return work.call();
+      return rpcExecutor.submit(StartupTracer.wrap(work)).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      Log.e(TAG, name + " 调用失败", e.getCause());
+    } catch (Exception e) {
+      Log.e(TAG, name + " 调用失败", e);
+    }
+    return fallback;
+  }
+
+  public static <T> CompletableFuture<T> call(String name, T fallback, RpcCall<T> rpc) {
+    return call(name, DEFAULT_TIMEOUT_MS, fallback, rpc);
+  }
+
+  /**
+   * 连接服务并在新连接上全量同步，已连接时直接返回true。供ConnectionSupervisor重连使用
+   */
+  public static CompletableFuture<Boolean> reconnect(Context context) {
+    Context appContext = context.getApplicationContext();
+    return submit("reconnect", CONNECT_TIMEOUT_MS,
+        () -> PluginDelegate.checkIsRunning(ServerDatabaseHelper.getInstance(appContext), appContext));
+  }
+
+  /**
+   * 立即注入，返回null表示成功，否则为错误信息
+   */
+  public static CompletableFuture<String> inject(String targetPackage, String pluginApk, String pluginClass, String param1, int param2) {
+    return call("doInject", INJECT_TIMEOUT_MS, "服务没有连接",
+        delegate -> delegate.inject(targetPackage, pluginApk, pluginClass, param1, param2));
+  }
+
+  public static CompletableFuture<Boolean> addPlugin(int pluginId, String pluginApk, String pluginClass, String param1, int param2) {
+    return call("registerPlugin", false,
+        delegate -> delegate.addPlugin(pluginId, pluginApk, pluginClass, param1, param2));
+  }
+
+  public static CompletableFuture<Boolean> modifyPlugin(int pluginId, String pluginClass, String param1, int param2) {
+    return call("modifyPlugin", false,
+        delegate -> delegate.modifyPlugin(pluginId, pluginClass, param1, param2));
+  }
+
+  public static CompletableFuture<Boolean> deletePlugin(int pluginId) {
+    return call("deletePlugin", false, delegate -> delegate.deletePlugin(pluginId));
+  }
+
+  public static CompletableFuture<Boolean> addPluginRule(int pluginId, String targetPkg) {
+    return call("addPluginRule", false, delegate -> delegate.addPluginRule(pluginId, targetPkg));
+  }
+
+  public static CompletableFuture<Boolean> deletePluginRule(int pluginId, String targetPkg) {
+    return call("deletePluginRule", false, delegate -> delegate.deletePluginRule(pluginId, targetPkg));
+  }
+
+  /**
+   * 一组规则作为一个任务提交，uid一次解析，在RPC线程上逐条按uid调用，不与其它调用交错
+   *
+   * @return 成功添加的规则数
+   */
+  public static CompletableFuture<Integer> addPluginRules(int pluginId, Collection<String> targetPackages) {
+    List<String> packages = new ArrayList<>(targetPackages);
+    return call("addPluginRules", DEFAULT_TIMEOUT_MS + packages.size() * 100L, 0,
+        delegate -> delegate.addPluginRules(pluginId, PluginDelegate.uids().resolve(packages)));
+  }
+
+  /**
+   * 与addPluginRules相同，逐条删除
+   *
+   * @return 成功删除的规则数
+   */
+  public static CompletableFuture<Integer> deletePluginRules(int pluginId, Collection<String> targetPackages) {
+    List<String> packages = new ArrayList<>(targetPackages);
+    return call("deletePluginRules", DEFAULT_TIMEOUT_MS + packages.size() * 100L, 0,
+        delegate -> delegate.deletePluginRules(pluginId, PluginDelegate.uids().resolve(packages)));
+  }
+
+  /**
+   * 重新同步单个插件，插件apk路径变化时会删除后重新注册
+   *
+   * @return 发出的RPC数量
+   */
+  public static CompletableFuture<Integer> syncPlugin(Context context, Plugin plugin) {
+    return call("syncPlugin", 0, delegate -> new PluginSyncEngine(delegate, context).syncPlugin(plugin));
+  }
+
+  public static CompletableFuture<ShellExecResult> shell(String command) {
+    return call("shell", null, delegate -> delegate.shell(command));
+  }
+
+  public static CompletableFuture<Boolean> forceStopApp(String packageName) {
+    return call("forceStopApp", false, delegate -> delegate.forceStopApp(packageName));
+  }
+
+  public static CompletableFuture<String> getPackageProcess(String packageName) {
+    return call("getPackageProcess", null, delegate -> delegate.getAppProcesses(packageName));
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.plugin;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接守护：定期检查与albatross_server的连接，断开后按带抖动的指数退避自动重连。
+ * 重连作为任务提交到RPC线程（AsyncPluginDelegate.reconnect），与其他RPC串行，
+ * 重连成功后由PluginDelegate.checkIsRunning把插件和规则重新同步到服务端。
+ */
+public final class ConnectionSupervisor {
+
+  private static final String TAG = "ConnectionSupervisor";
+  // 连接健康检查间隔
+  static final long HEALTH_CHECK_INTERVAL_MS = 3000;
+  static final long INITIAL_BACKOFF_MS = 200;
+  static final long MAX_BACKOFF_MS = 30000;
+
+  private static ConnectionSupervisor instance;
+
+  private final Context context;
+  private final ScheduledExecutorService scheduler;
+  private final Random random = new Random();
+  private ScheduledFuture<?> healthCheck;
+  private ScheduledFuture<?> reconnectTask;
+  private long backoffMs = INITIAL_BACKOFF_MS;
+  private int reconnectAttempts;
+  private boolean supervising;
+
+  private ConnectionSupervisor(Context context) {
+    this.context = context.getApplicationContext();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "ConnectionSupervisor");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public static synchronized ConnectionSupervisor getInstance(Context context) {
+    if (instance == null) {
+      instance = new ConnectionSupervisor(context);
+    }
+    return instance;
+  }
+
+  /**
+   * 连接断开时由PluginDelegate调用，守护未启动时忽略
+   */
+  static void notifyConnectionLost() {
+    ConnectionSupervisor supervisor;
+    synchronized (ConnectionSupervisor.class) {
+      supervisor = instance;
+    }
+    if (supervisor != null)
+      supervisor.onConnectionLost();
+  }
+
+  /**
+   * 主动停止服务时调用，停止后不再自动重连
+   */
+  static void stopSupervising() {
+    ConnectionSupervisor supervisor;
+    synchronized (ConnectionSupervisor.class) {
+      supervisor = instance;
+    }
+    if (supervisor != null)
+      supervisor.stop();
+  }
+
+  public synchronized void start() {
+    if (supervising)
+      return;
+    supervising = true;
+    backoffMs = INITIAL_BACKOFF_MS;
+    reconnectAttempts = 0;
+    healthCheck = scheduler.scheduleWithFixedDelay(this::checkHealth,
+        HEALTH_CHECK_INTERVAL_MS, HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    Log.i(TAG, "开始守护服务连接");
+  }
+
+  public synchronized void stop() {
+    if (!supervising)
+      return;
+    supervising = false;
+    if (healthCheck != null) {
+      healthCheck.cancel(false);
+      healthCheck = null;
+    }
+    if (reconnectTask != null) {
+      reconnectTask.cancel(false);
+      reconnectTask = null;
+    }
+    Log.i(TAG, "停止守护服务连接");
+  }
+
+  public synchronized boolean isSupervising() {
+    return supervising;
+  }
+
+  private void checkHealth() {
+    synchronized (this) {
+      if (!supervising || reconnectTask != null)
+        return;
+    }
+    try {
+      // isServerRunning发现连接已关闭时会调用disconnection，进而通知onConnectionLost
+      if (!PluginDelegate.isServerRunning())
+        onConnectionLost();
+    } catch (Exception e) {
+      Log.e(TAG, "检查连接状态失败", e);
+      onConnectionLost();
+    }
+  }
+
+  private synchronized void onConnectionLost() {
+    if (!supervising || reconnectTask != null)
+      return;
+    Log.w(TAG, "服务连接已断开，准备重连");
+    scheduleReconnect();
+  }
+
+  private synchronized void scheduleReconnect() {
+    // 等量抖动：在[backoff/2, backoff]之间随机，避免多个客户端同时重连
+    long half = backoffMs / 2;
+    long delay = half + (long) (random.nextDouble() * (backoffMs - half));
+    reconnectTask = scheduler.schedule(this::attemptReconnect, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void attemptReconnect() {
+    synchronized (this) {
+      if (!supervising) {
+        reconnectTask = null;
+        return;
+      }
+      reconnectAttempts++;
+    }
+    // 结果返回前reconnectTask保持非空，健康检查不会再发起重连
+    AsyncPluginDelegate.reconnect(context).whenComplete((connected, error) -> {
+      if (error != null)
+        Log.d(TAG, "重连失败: " + error.getMessage());
+      onReconnectResult(error == null && connected);
+    });
+  }
+
+  private void onReconnectResult(boolean connected) {
+    synchronized (this) {
+      reconnectTask = null;
+      if (!supervising)
+        return;
+      if (connected) {
+        Log.i(TAG, "服务重连成功，尝试次数 " + reconnectAttempts);
+        backoffMs = INITIAL_BACKOFF_MS;
+        reconnectAttempts = 0;
+      } else {
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        scheduleReconnect();
+      }
+    }
+  }
+}
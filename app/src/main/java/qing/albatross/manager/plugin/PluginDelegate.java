@@ -16,22 +16,21 @@
 package qing.albatross.manager.plugin;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.util.Log;
 import android.widget.Toast;
 
 import java.io.File;
-import java.util.List;
+import java.util.Map;
 
+import qing.albatross.app.agent.client.AlbatrossClient;
 import qing.albatross.app.agent.client.DisconnectException;
 import qing.albatross.app.agent.client.ShellExecResult;
 import qing.albatross.core.Albatross;
 import qing.albatross.manager.data.ConfigManager;
-import qing.albatross.manager.data.Plugin;
-import qing.albatross.manager.data.PluginDatabaseHelper;
-import qing.albatross.manager.data.PluginRuleDatabaseHelper;
+import qing.albatross.manager.data.PackageUids;
 import qing.albatross.manager.data.ServerDatabaseHelper;
+import qing.albatross.manager.utils.StartupTracer;
 import qing.albatross.plugin.PluginConnection;
 
 public final class PluginDelegate {
@@ -39,7 +38,15 @@ public final class PluginDelegate {
   public static final byte DEX_LOAD_SUCCESS = 20;
   PluginConnection connection;
   boolean isLsposedInjected;
-  static PluginDelegate instance;
+  // 按uid调用规则接口的独立连接，打开失败时为null，退回PluginConnection的按包名接口
+  RuleChannel rules;
+  // 本连接上已应用到服务端的状态
+  final ServerState state = new ServerState();
+  static volatile PluginDelegate instance;
+  // 断线前的连接状态，重连后交给新连接作为stale，只在CONNECT_LOCK内访问
+  private static ServerState retiredState;
+  // 建立连接、全量同步和断开互斥，避免并发重连创建多个连接并在同一个ServerState上交错同步
+  private static final Object CONNECT_LOCK = new Object();
 
   public static boolean isServerRunning() {
     if (instance != null) {
@@ -50,6 +57,7 @@ public final class PluginDelegate {
         throw new RuntimeException(e);
       }
       if (closed) {
+        RpcMetrics.recordDisconnect("connection");
         disconnection();
         return false;
       }
@@ -62,7 +70,18 @@ public final class PluginDelegate {
     return instance;
   }
 
+  /**
+   * 增量同步插件和规则，在RPC线程上执行，调用线程阻塞等待结果
+   */
   public static boolean sync(ServerDatabaseHelper dbHelper, Context context) {
+    return AsyncPluginDelegate.runBlocking("sync", false, () -> {
+      synchronized (CONNECT_LOCK) {
+        return syncLocked(context);
+      }
+    });
+  }
+
+  private static boolean syncLocked(Context context) {
     if (!isServerRunning())
       return false;
     try {
@@ -76,29 +95,7 @@ public final class PluginDelegate {
           return true;
         }
         instance.isLsposedInjected = false;
-        PluginDatabaseHelper databaseHelper = PluginDatabaseHelper.getInstance(context);
-        List<Plugin> plugins = databaseHelper.getAllPlugins();
-        for (Plugin plugin : plugins) {
-          ApplicationInfo applicationInfo;
-          try {
-            applicationInfo = context.getPackageManager().getApplicationInfo(plugin.getPackageName(), 0);
-          } catch (Exception ignore) {
-            instance.deletePlugin(plugin.getId());
-            continue;
-          }
-          int pluginId = plugin.getId();
-          instance.deletePlugin(pluginId);
-          if (plugin.isEnabled()) {
-            List<String> packages;
-            packages = PluginRuleDatabaseHelper.getInstance(context).getTargetPackages(plugin.getPackageName());
-            {
-              instance.addPlugin(pluginId, applicationInfo.sourceDir, plugin.getClassName(), plugin.getParams(), plugin.getFlags());
-              for (String pkg : packages) {
-                instance.addPluginRule(pluginId, pkg);
-              }
-            }
-          }
-        }
+        new PluginSyncEngine(instance, context).sync();
         return true;
       }
     } catch (Exception e) {
@@ -108,7 +105,19 @@ public final class PluginDelegate {
   }
 
 
+  /**
+   * 未连接时建立连接并全量同步，在RPC线程上执行，调用线程阻塞等待结果
+   */
   public static boolean checkIsRunning(ServerDatabaseHelper dbHelper, Context context) {
+    return AsyncPluginDelegate.runBlocking("connect", false, () -> {
+      synchronized (CONNECT_LOCK) {
+        return connectLocked(dbHelper, context);
+      }
+    });
+  }
+
+  private static boolean connectLocked(ServerDatabaseHelper dbHelper, Context context) {
+    // 等待锁期间其他线程可能已经连上
     if (isServerRunning())
       return true;
     String lib32 = dbHelper.getCurrentServerInfo().getLib32Path();
@@ -123,43 +132,31 @@ public final class PluginDelegate {
 
       }
       String SERVER_ADDRESS = ConfigManager.getInstance(context).getServerAddress();
-      PluginConnection connection = PluginConnection.create(SERVER_ADDRESS, lib32, appAgentPath, rootPath + ConfigManager.SYSTEM_AGENT_FILE);
+      long start = RpcMetrics.start();
+      PluginConnection connection;
+      try (StartupTracer.Span ignored = StartupTracer.span("connect")) {
+        connection = PluginConnection.create(SERVER_ADDRESS, lib32, appAgentPath, rootPath + ConfigManager.SYSTEM_AGENT_FILE);
+      }
+      RpcMetrics.record("connect", start, connection != null ? "ok" : "fail");
       if (connection != null) {
         instance = new PluginDelegate();
+        if (retiredState != null) {
+          instance.state.inherit(retiredState);
+          retiredState = null;
+        }
         instance.connection = connection;
+        instance.rules = openRuleChannel(SERVER_ADDRESS);
         instance.isLsposedInjected = connection.isLsposedInjected();
+        // 连接建立后由守护负责断线重连
+        ConnectionSupervisor.getInstance(context).start();
         if (instance.isLsposedInjected) {
           Albatross.getMainHandler().post(() -> {
             Toast.makeText(Albatross.currentApplication(), "检测到lspoed注入了，无法使用launch模式，仅支持立即注入到lsposed未注入的app中", Toast.LENGTH_SHORT).show();
           });
           return true;
         }
-        PluginDatabaseHelper databaseHelper = PluginDatabaseHelper.getInstance(context);
-        List<Plugin> plugins = databaseHelper.getAllPlugins();
-        for (Plugin plugin : plugins) {
-          ApplicationInfo applicationInfo;
-          try {
-            applicationInfo = context.getPackageManager().getApplicationInfo(plugin.getPackageName(), 0);
-          } catch (Exception ignore) {
-            instance.deletePlugin(plugin.getId());
-            continue;
-          }
-          int pluginId = plugin.getId();
-          if (plugin.isEnabled()) {
-            List<String> packages;
-            packages = PluginRuleDatabaseHelper.getInstance(context).getTargetPackages(plugin.getPackageName());
-            if (false && packages.isEmpty()) {
-              instance.deletePlugin(pluginId);
-            } else {
-              instance.addPlugin(pluginId, applicationInfo.sourceDir, plugin.getClassName(), plugin.getParams(), plugin.getFlags());
-              for (String pkg : packages) {
-                instance.addPluginRule(pluginId, pkg);
-              }
-            }
-          } else {
-            instance.deletePlugin(pluginId);
-          }
-        }
+        // 新连接上服务端状态未知，全量同步一次
+        new PluginSyncEngine(instance, context).sync();
         return true;
       }
     } catch (Exception e) {
@@ -189,8 +186,10 @@ public final class PluginDelegate {
 
 
   public String inject(String targetPackage, String pluginApk, String pluginClass, String param1, int param2) {
+    long start = RpcMetrics.start();
     try {
       int res = connection.doInject(targetPackage, pluginApk, pluginClass, param1, param2);
+      RpcMetrics.record("doInject", start, res);
       switch (res) {
         case -2:
           return "找不到对应的进程";
@@ -204,16 +203,20 @@ public final class PluginDelegate {
           return "注入失败:" + res;
       }
     } catch (Throwable e) {
+      RpcMetrics.recordError("doInject", start, e);
       e.printStackTrace();
       return "err " + e;
     }
   }
 
   public boolean addSystemPlugin(String pluginApk, String pluginClass, String param1, int param2) {
+    long start = RpcMetrics.start();
     try {
       byte res = connection.loadSystemPlugin(pluginApk, pluginClass, param1, param2);
+      RpcMetrics.record("loadSystemPlugin", start, res);
       return res == DEX_LOAD_SUCCESS;
     } catch (Throwable e) {
+      RpcMetrics.recordError("loadSystemPlugin", start, e);
       e.printStackTrace();
       return false;
     }
@@ -221,93 +224,290 @@ public final class PluginDelegate {
 
 
   public boolean addPlugin(int pluginId, String pluginApk, String pluginClass, String param1, int param2) {
+    if (state.isKnown() && new ServerState.Registration(pluginApk, pluginClass, param1, param2).equals(state.getRegistration(pluginId))) {
+      // 服务端已是相同注册，无需重复调用
+      RpcMetrics.recordSkipped("registerPlugin");
+      return true;
+    }
+    long start = RpcMetrics.start();
     try {
       byte res = connection.registerPlugin(pluginId, pluginApk, pluginClass, param1, param2);
-      if (res == 0 || res == 1)
+      RpcMetrics.record("registerPlugin", start, res);
+      if (res == 0 || res == 1) {
+        state.putRegistration(pluginId, new ServerState.Registration(pluginApk, pluginClass, param1, param2));
         return true;
+      }
     } catch (Throwable e) {
+      RpcMetrics.recordError("registerPlugin", start, e);
       e.printStackTrace();
+      state.invalidate();
     }
     return false;
   }
 
   public boolean modifyPlugin(int pluginId, String pluginClass, String param1, int param2) {
+    if (state.isKnown()) {
+      ServerState.Registration applied = state.getRegistration(pluginId);
+      if (applied != null && applied.sameConfig(new ServerState.Registration(applied.apk, pluginClass, param1, param2))) {
+        RpcMetrics.recordSkipped("modifyPlugin");
+        return true;
+      }
+    }
+    long start = RpcMetrics.start();
     try {
       byte res = connection.modifyPlugin(pluginId, pluginClass, param1, param2);
+      RpcMetrics.record("modifyPlugin", start, res);
       if (res == 0) {
         Log.e("PluginHandler", "get plugin fail");
         return false;
       }
+      state.updateConfig(pluginId, pluginClass, param1, param2);
       return true;
     } catch (Throwable e) {
+      RpcMetrics.recordError("modifyPlugin", start, e);
       e.printStackTrace();
+      state.invalidate();
     }
     return false;
   }
 
   public boolean deletePluginRule(int pluginId, String targetPkg) {
+    return deletePluginRule(pluginId, targetPkg, uids().getUid(targetPkg));
+  }
+
+  /**
+   * @param uid 包卸载后PackageUids仍保留最后的uid，按uid删除服务端残留的规则
+   */
+  private boolean deletePluginRule(int pluginId, String targetPkg, int uid) {
+    if (state.isKnown() && !state.hasRule(pluginId, targetPkg)) {
+      // 服务端没有这条规则
+      RpcMetrics.recordSkipped("deletePluginRule");
+      return true;
+    }
+    long start = RpcMetrics.start();
     try {
-      return connection.deletePluginRule(pluginId, targetPkg);
+      boolean res = rules != null && uid != PackageUids.UNKNOWN_UID ? rules.deletePluginRule(pluginId, uid)
+          : connection.deletePluginRule(pluginId, targetPkg);
+      RpcMetrics.record("deletePluginRule", start, res);
+      if (res)
+        state.removeRule(pluginId, targetPkg);
+      return res;
     } catch (Throwable e) {
+      RpcMetrics.recordError("deletePluginRule", start, e);
       e.printStackTrace();
+      state.invalidate();
       return false;
     }
   }
 
   public boolean addPluginRule(int pluginId, String targetPkg) {
+    if (isLsposedInjected) {
+      showLsposedToast();
+      return false;
+    }
+    return addPluginRule(pluginId, targetPkg, uids().getUid(targetPkg));
+  }
+
+  /**
+   * @param uid 由PackageUids缓存解析，规则通道可用时按uid调用，不再由PluginConnection逐条查询包信息
+   */
+  private boolean addPluginRule(int pluginId, String targetPkg, int uid) {
+    if (state.isKnown() && state.hasRule(pluginId, targetPkg)) {
+      RpcMetrics.recordSkipped("addPluginRule");
+      return true;
+    }
+    long start = RpcMetrics.start();
     try {
-      if (isLsposedInjected) {
-        Albatross.getMainHandler().post(() -> {
-          Toast.makeText(Albatross.currentApplication(), "检测到lspoed注入了，无法使用launch模式，仅支持立即注入到lsposed未注入的app中", Toast.LENGTH_SHORT).show();
-        });
-        return false;
+      byte res = rules != null && uid != PackageUids.UNKNOWN_UID ? rules.addPluginRule(pluginId, uid)
+          : connection.addPluginRule(pluginId, targetPkg);
+      RpcMetrics.record("addPluginRule", start, res);
+      if (res == 0) {
+        state.addRule(pluginId, targetPkg);
+        return true;
       }
-      byte res = connection.addPluginRule(pluginId, targetPkg);
-      return res == 0;
+      return false;
     } catch (Throwable e) {
+      RpcMetrics.recordError("addPluginRule", start, e);
       e.printStackTrace();
+      state.invalidate();
       return false;
     }
   }
 
-  public byte deletePlugin(int pluginId) {
+  /**
+   * 逐条添加规则。服务端没有批量接口，每条规则仍是一次RPC，但uid已由调用方一次解析好，不再逐条查询包信息
+   *
+   * @param targets 包名 -> uid，由调用方通过PackageUids解析
+   * @return 成功添加的规则数
+   */
+  public int addPluginRules(int pluginId, Map<String, Integer> targets) {
+    if (targets.isEmpty())
+      return 0;
+    if (isLsposedInjected) {
+      showLsposedToast();
+      return 0;
+    }
+    int count = 0;
+    for (Map.Entry<String, Integer> entry : targets.entrySet()) {
+      if (addPluginRule(pluginId, entry.getKey(), entry.getValue()))
+        count++;
+    }
+    return count;
+  }
+
+  /**
+   * 逐条删除规则，跳过服务端没有的规则
+   *
+   * @param targets 包名 -> uid，已卸载的包为最后记录的uid
+   * @return 成功删除的规则数
+   */
+  public int deletePluginRules(int pluginId, Map<String, Integer> targets) {
+    int count = 0;
+    for (Map.Entry<String, Integer> entry : targets.entrySet()) {
+      if (deletePluginRule(pluginId, entry.getKey(), entry.getValue()))
+        count++;
+    }
+    return count;
+  }
+
+  private static void showLsposedToast() {
+    Albatross.getMainHandler().post(() -> {
+      Toast.makeText(Albatross.currentApplication(), "检测到lspoed注入了，无法使用launch模式，仅支持立即注入到lsposed未注入的app中", Toast.LENGTH_SHORT).show();
+    });
+  }
+
+  /**
+   * 在同一服务地址上另开一个AlbatrossClient，只用于按uid增删规则
+   */
+  private static RuleChannel openRuleChannel(String address) {
+    try {
+      AlbatrossClient client = new AlbatrossClient();
+      if (client.createClient(address, true) == null)
+        return null;
+      if (client.getTid() <= 0) {
+        client.close();
+        return null;
+      }
+      return new RuleChannel() {
+        @Override
+        public byte addPluginRule(int pluginId, int uid) {
+          return client.addPluginRule(pluginId, uid);
+        }
+
+        @Override
+        public boolean deletePluginRule(int pluginId, int uid) {
+          return client.deletePluginRule(pluginId, uid);
+        }
+
+        @Override
+        public void close() {
+          client.close();
+        }
+      };
+    } catch (Throwable e) {
+      Log.w("PluginHandler", "open rule channel fail", e);
+      return null;
+    }
+  }
+
+  private void closeRules() {
+    if (rules == null)
+      return;
     try {
-      return connection.deletePlugin(pluginId);
+      rules.close();
     } catch (Exception e) {
-      return 0;
+      Log.w("PluginHandler", "close rule channel fail", e);
     }
+    rules = null;
   }
 
-  public static boolean stopServer() {
-    if (instance == null)
-      return false;
+  static PackageUids uids() {
+    return PackageUids.getInstance(Albatross.currentApplication());
+  }
+
+  /**
+   * 注销插件，服务端没有注册也视为成功，调用异常返回false
+   */
+  public boolean deletePlugin(int pluginId) {
+    return deletePlugin(pluginId, false);
+  }
+
+  /**
+   * @param force 不论镜像中有没有注册都发出调用，用于服务端可能残留旧注册的情况
+   */
+  boolean deletePlugin(int pluginId, boolean force) {
+    if (!force && state.isKnown() && !state.isRegistered(pluginId)) {
+      // 服务端没有注册该插件
+      RpcMetrics.recordSkipped("deletePlugin");
+      return true;
+    }
+    long start = RpcMetrics.start();
     try {
-      instance.connection.stopServer();
-      instance = null;
+      byte res = connection.deletePlugin(pluginId);
+      RpcMetrics.record("deletePlugin", start, res);
+      state.removePlugin(pluginId);
       return true;
     } catch (Exception e) {
-      Log.e("PluginHandler", "stop fail", e);
+      RpcMetrics.recordError("deletePlugin", start, e);
+      state.invalidate();
+      return false;
     }
-    instance = null;
-    return false;
+  }
 
+  public static boolean stopServer() {
+    ConnectionSupervisor.stopSupervising();
+    synchronized (CONNECT_LOCK) {
+      if (instance == null)
+        return false;
+      try {
+        instance.closeRules();
+        retiredState = null;
+        instance.connection.stopServer();
+        instance = null;
+        return true;
+      } catch (Exception e) {
+        Log.e("PluginHandler", "stop fail", e);
+      }
+      instance = null;
+      return false;
+    }
   }
 
   public static void disconnection() {
-    if (instance != null) {
-      instance.connection.disconnection();
-      instance = null;
+    synchronized (CONNECT_LOCK) {
+      if (instance != null) {
+        instance.closeRules();
+        instance.connection.disconnection();
+        instance.state.invalidate();
+        // 服务端进程可能仍在运行并保留着这些注册
+        retiredState = instance.state;
+        instance = null;
+        ConnectionSupervisor.notifyConnectionLost();
+      }
+    }
+  }
+
+  public ShellExecResult shell(String command) throws DisconnectException {
+    long start = RpcMetrics.start();
+    try {
+      ShellExecResult result = connection.shell(command);
+      RpcMetrics.record("shell", start, result != null ? result.exitCode : null);
+      return result;
+    } catch (DisconnectException e) {
+      RpcMetrics.recordError("shell", start, e);
+      disconnection();
+      throw e;
     }
   }
 
   public boolean freezeApp(String packageName) {
     try {
-      ShellExecResult result = connection.shell("pm disable " + packageName);
+      ShellExecResult result = shell("pm disable " + packageName);
       if (result != null) {
         return result.exitCode == 0;
       }
-    } catch (DisconnectException e) {
-      disconnection();
+    } catch (DisconnectException ignore) {
+      // shell()中已经断开
     }
 
     return false;
@@ -315,12 +515,12 @@ public final class PluginDelegate {
 
   public boolean unfreezeApp(String packageName) {
     try {
-      ShellExecResult result = connection.shell("pm enable " + packageName);
+      ShellExecResult result = shell("pm enable " + packageName);
       if (result != null) {
         return result.exitCode == 0;
       }
-    } catch (DisconnectException e) {
-      disconnection();
+    } catch (DisconnectException ignore) {
+      // shell()中已经断开
     }
 
     return false;
@@ -329,18 +529,26 @@ public final class PluginDelegate {
   public boolean forceStopApp(String packageName) {
     ShellExecResult result;
     try {
-      result = connection.shell("am force-stop " + packageName);
+      result = shell("am force-stop " + packageName);
       if (result != null) {
         return result.exitCode == 0;
       }
-    } catch (DisconnectException e) {
-      disconnection();
+    } catch (DisconnectException ignore) {
+      // shell()中已经断开
     }
     return false;
   }
 
   public String getAppProcesses(String packageName) throws PackageManager.NameNotFoundException {
-    return connection.getPackageProcess(packageName);
+    long start = RpcMetrics.start();
+    try {
+      String processes = connection.getPackageProcess(packageName);
+      RpcMetrics.record("getPackageProcess", start, processes != null ? "ok" : "null");
+      return processes;
+    } catch (RuntimeException | PackageManager.NameNotFoundException e) {
+      RpcMetrics.recordError("getPackageProcess", start, e);
+      throw e;
+    }
   }
 
 
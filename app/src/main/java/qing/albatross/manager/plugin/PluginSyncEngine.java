@@ -0,0 +1,246 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.plugin;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import qing.albatross.manager.data.PackageUids;
+import qing.albatross.manager.data.Plugin;
+import qing.albatross.manager.data.PluginDatabaseHelper;
+import qing.albatross.manager.data.PluginRuleDatabaseHelper;
+import qing.albatross.manager.utils.StartupTracer;
+
+/**
+ * 插件同步引擎：由数据库计算期望状态，与ServerState中已应用的状态对比，
+ * 只发出必要的registerPlugin/modifyPlugin/addPluginRule/deletePluginRule/deletePlugin调用。
+ */
+final class PluginSyncEngine {
+
+  private static final String TAG = "PluginSyncEngine";
+
+  /**
+   * 单个插件的期望状态，registration为null表示该插件不应注册在服务端
+   */
+  private static final class Desired {
+    final ServerState.Registration registration;
+    final Set<String> targets;
+
+    Desired(ServerState.Registration registration, Set<String> targets) {
+      this.registration = registration;
+      this.targets = targets;
+    }
+  }
+
+  private final PluginDelegate delegate;
+  private final ServerState state;
+  private final Context context;
+  private final PackageUids uids;
+  private int rpcCount;
+
+  PluginSyncEngine(PluginDelegate delegate, Context context) {
+    this.delegate = delegate;
+    this.state = delegate.state;
+    this.context = context;
+    this.uids = PackageUids.getInstance(context);
+  }
+
+  /**
+   * 执行同步。服务端状态未知时（新连接）不删除仍需要的插件，只删除不再需要的插件和上个连接留下的多余规则，
+   * 需要的插件原地重新注册，之后只做增量
+   *
+   * @return 本次发出的RPC数量
+   */
+  int sync() {
+    try (StartupTracer.Span ignored = StartupTracer.span("sync")) {
+      return doSync();
+    }
+  }
+
+  private int doSync() {
+    rpcCount = 0;
+    Map<Integer, Desired> desired;
+    try (StartupTracer.Span ignored = StartupTracer.span("loadDesiredState")) {
+      desired = loadDesiredState();
+    }
+    if (!state.isKnown()) {
+      removeStale(desired);
+      state.markKnown();
+    }
+    // 数据库中已不存在的插件
+    for (Integer pluginId : state.getPluginIds()) {
+      if (!desired.containsKey(pluginId))
+        deletePlugin(pluginId);
+    }
+    for (Map.Entry<Integer, Desired> entry : desired.entrySet()) {
+      try (StartupTracer.Span ignored = StartupTracer.span("plugin:" + entry.getKey())) {
+        reconcile(entry.getKey(), entry.getValue());
+      }
+    }
+    Log.i(TAG, "同步完成，插件 " + desired.size() + " 个，RPC " + rpcCount + " 次");
+    return rpcCount;
+  }
+
+  /**
+   * 状态未知时调用，此时删除调用不会因镜像中没有记录而跳过。
+   * 正在生效的插件保持注册，避免重连期间hook短暂失效
+   */
+  private void removeStale(Map<Integer, Desired> desired) {
+    Map<Integer, Set<String>> stale = state.getStale();
+    for (Map.Entry<Integer, Desired> entry : desired.entrySet()) {
+      // 已禁用或已卸载的插件可能还注册在服务端
+      if (entry.getValue().registration == null)
+        deletePlugin(entry.getKey());
+    }
+    for (Map.Entry<Integer, Set<String>> entry : stale.entrySet()) {
+      int pluginId = entry.getKey();
+      Desired wanted = desired.get(pluginId);
+      if (wanted == null) {
+        // 数据库中已不存在的插件
+        deletePlugin(pluginId);
+        continue;
+      }
+      if (wanted.registration == null)
+        continue;
+      List<String> removed = new ArrayList<>();
+      for (String pkg : entry.getValue()) {
+        if (!wanted.targets.contains(pkg))
+          removed.add(pkg);
+      }
+      if (!removed.isEmpty()) {
+        rpcCount += removed.size();
+        delegate.deletePluginRules(pluginId, uids.resolve(removed));
+      }
+    }
+  }
+
+  private Map<Integer, Desired> loadDesiredState() {
+    Map<Integer, Desired> desired = new HashMap<>();
+    // 规则从内存缓存读取
+    PluginRuleDatabaseHelper ruleDb = PluginRuleDatabaseHelper.getInstance(context);
+    List<Plugin> plugins = PluginDatabaseHelper.getInstance(context).getAllPlugins();
+    for (Plugin plugin : plugins) {
+      desired.put(plugin.getId(), desiredFor(plugin, ruleDb));
+    }
+    return desired;
+  }
+
+  private Desired desiredFor(Plugin plugin, PluginRuleDatabaseHelper ruleDb) {
+    ApplicationInfo applicationInfo;
+    try {
+      applicationInfo = context.getPackageManager().getApplicationInfo(plugin.getPackageName(), 0);
+    } catch (Exception ignore) {
+      // 插件已卸载
+      return new Desired(null, new HashSet<>());
+    }
+    if (!plugin.isEnabled())
+      return new Desired(null, new HashSet<>());
+    ServerState.Registration registration = new ServerState.Registration(applicationInfo.sourceDir,
+        plugin.getClassName(), plugin.getParams(), plugin.getFlags());
+    return new Desired(registration, ruleDb.getTargetSet(plugin.getPackageName()));
+  }
+
+  /**
+   * 只同步单个插件，用于插件apk更新或卸载后。服务端状态未知时退化为全量同步
+   *
+   * @return 本次发出的RPC数量
+   */
+  int syncPlugin(Plugin plugin) {
+    if (!state.isKnown())
+      return sync();
+    rpcCount = 0;
+    try (StartupTracer.Span ignored = StartupTracer.span("plugin:" + plugin.getId())) {
+      reconcile(plugin.getId(), desiredFor(plugin, PluginRuleDatabaseHelper.getInstance(context)));
+    }
+    Log.i(TAG, "同步插件 " + plugin.getPackageName() + "，RPC " + rpcCount + " 次");
+    return rpcCount;
+  }
+
+  private void reconcile(int pluginId, Desired desired) {
+    ServerState.Registration applied = state.getRegistration(pluginId);
+    if (desired.registration == null) {
+      if (applied != null)
+        deletePlugin(pluginId);
+      return;
+    }
+    if (applied != null && !desired.registration.apk.equals(applied.apk)) {
+      // 插件apk路径变化（如更新后重新安装），只能重新注册
+      deletePlugin(pluginId);
+      applied = null;
+    }
+    if (applied == null) {
+      ServerState.Registration registration = desired.registration;
+      rpcCount++;
+      if (!delegate.addPlugin(pluginId, registration.apk, registration.className, registration.params, registration.flags)) {
+        // 服务端可能保留着不接受覆盖的旧注册，删除后重试一次
+        Log.w(TAG, "原地注册插件失败，删除后重新注册: " + pluginId);
+        rpcCount++;
+        delegate.deletePlugin(pluginId, true);
+        rpcCount++;
+        if (!delegate.addPlugin(pluginId, registration.apk, registration.className, registration.params, registration.flags)) {
+          Log.e(TAG, "注册插件失败: " + pluginId);
+          return;
+        }
+      }
+    } else if (!applied.sameConfig(desired.registration)) {
+      ServerState.Registration registration = desired.registration;
+      rpcCount++;
+      if (!delegate.modifyPlugin(pluginId, registration.className, registration.params, registration.flags)) {
+        // 服务端找不到该插件，按新插件重新注册
+        Log.w(TAG, "修改插件配置失败，重新注册: " + pluginId);
+        deletePlugin(pluginId);
+        rpcCount++;
+        if (!delegate.addPlugin(pluginId, registration.apk, registration.className, registration.params, registration.flags)) {
+          Log.e(TAG, "注册插件失败: " + pluginId);
+          return;
+        }
+      }
+    }
+    Set<String> appliedTargets = state.getTargets(pluginId);
+    List<String> removed = new ArrayList<>();
+    for (String pkg : appliedTargets) {
+      if (!desired.targets.contains(pkg))
+        removed.add(pkg);
+    }
+    List<String> added = new ArrayList<>();
+    for (String pkg : desired.targets) {
+      if (!appliedTargets.contains(pkg))
+        added.add(pkg);
+    }
+    // uid由PackageUids缓存解析，规则按uid逐条下发，已卸载的包用最后记录的uid删除
+    if (!removed.isEmpty()) {
+      rpcCount += removed.size();
+      delegate.deletePluginRules(pluginId, uids.resolve(removed));
+    }
+    if (!added.isEmpty()) {
+      rpcCount += added.size();
+      delegate.addPluginRules(pluginId, uids.resolve(added));
+    }
+  }
+
+  private void deletePlugin(int pluginId) {
+    rpcCount++;
+    delegate.deletePlugin(pluginId);
+  }
+}
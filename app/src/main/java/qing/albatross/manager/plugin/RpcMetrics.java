@@ -0,0 +1,259 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.plugin;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import qing.albatross.app.agent.client.DisconnectException;
+
+/**
+ * PluginDelegate到PluginConnection每次调用的统计：按方法记录延迟直方图、返回值计数、异常和断线次数。
+ */
+public final class RpcMetrics {
+
+  public static final String RESULT_SKIPPED = "skipped";
+
+  private static final Map<String, MethodStats> methods = new ConcurrentHashMap<>();
+  private static volatile long sinceElapsed = SystemClock.elapsedRealtime();
+
+  private RpcMetrics() {
+  }
+
+  /**
+   * 调用开始时间，传给record系列方法
+   */
+  public static long start() {
+    return System.nanoTime();
+  }
+
+  public static void record(String method, long startNanos, Object result) {
+    MethodStats stats = stats(method);
+    stats.latency.record((System.nanoTime() - startNanos) / 1000);
+    stats.countResult(String.valueOf(result));
+  }
+
+  public static void recordError(String method, long startNanos, Throwable e) {
+    MethodStats stats = stats(method);
+    stats.latency.record((System.nanoTime() - startNanos) / 1000);
+    stats.errors.incrementAndGet();
+    if (e instanceof DisconnectException)
+      stats.disconnects.incrementAndGet();
+  }
+
+  /**
+   * 断线不一定以异常形式出现（如isClosed检测到），单独计数
+   */
+  public static void recordDisconnect(String method) {
+    stats(method).disconnects.incrementAndGet();
+  }
+
+  /**
+   * 被已应用状态判定为无需调用的请求
+   */
+  public static void recordSkipped(String method) {
+    stats(method).countResult(RESULT_SKIPPED);
+  }
+
+  public static void reset() {
+    methods.clear();
+    sinceElapsed = SystemClock.elapsedRealtime();
+  }
+
+  private static MethodStats stats(String method) {
+    MethodStats stats = methods.get(method);
+    if (stats == null) {
+      MethodStats created = new MethodStats();
+      stats = methods.putIfAbsent(method, created);
+      if (stats == null)
+        stats = created;
+    }
+    return stats;
+  }
+
+  /**
+   * 诊断界面使用的文本摘要
+   */
+  public static String summary() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, MethodStats> entry : new TreeMap<>(methods).entrySet()) {
+      MethodStats stats = entry.getValue();
+      LatencyHistogram h = stats.latency;
+      sb.append(entry.getKey()).append('\n');
+      sb.append(String.format(Locale.US, "  n=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms\n",
+          h.getCount(), h.percentile(50) / 1000.0, h.percentile(95) / 1000.0,
+          h.percentile(99) / 1000.0, h.getMax() / 1000.0));
+      sb.append("  err=").append(stats.errors.get())
+          .append(" disconnect=").append(stats.disconnects.get())
+          .append(" results=").append(stats.resultSnapshot()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  public static boolean isEmpty() {
+    return methods.isEmpty();
+  }
+
+  /**
+   * 导出JSON，延迟单位为毫秒
+   */
+  public static JSONObject toJson() throws JSONException {
+    JSONObject root = new JSONObject();
+    root.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+    root.put("sdk", Build.VERSION.SDK_INT);
+    root.put("window_ms", SystemClock.elapsedRealtime() - sinceElapsed);
+    JSONObject methodsJson = new JSONObject();
+    for (Map.Entry<String, MethodStats> entry : new TreeMap<>(methods).entrySet()) {
+      MethodStats stats = entry.getValue();
+      LatencyHistogram h = stats.latency;
+      JSONObject m = new JSONObject();
+      m.put("count", h.getCount());
+      m.put("mean_ms", h.getMean() / 1000.0);
+      m.put("p50_ms", h.percentile(50) / 1000.0);
+      m.put("p95_ms", h.percentile(95) / 1000.0);
+      m.put("p99_ms", h.percentile(99) / 1000.0);
+      m.put("max_ms", h.getMax() / 1000.0);
+      m.put("errors", stats.errors.get());
+      m.put("disconnects", stats.disconnects.get());
+      JSONObject results = new JSONObject();
+      for (Map.Entry<String, Long> result : stats.resultSnapshot().entrySet()) {
+        results.put(result.getKey(), (long) result.getValue());
+      }
+      m.put("results", results);
+      methodsJson.put(entry.getKey(), m);
+    }
+    root.put("methods", methodsJson);
+    return root;
+  }
+
+  private static final class MethodStats {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final Map<String, AtomicLong> results = new ConcurrentHashMap<>();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong disconnects = new AtomicLong();
+
+    void countResult(String result) {
+      AtomicLong counter = results.get(result);
+      if (counter == null) {
+        AtomicLong created = new AtomicLong();
+        counter = results.putIfAbsent(result, created);
+        if (counter == null)
+          counter = created;
+      }
+      counter.incrementAndGet();
+    }
+
+    Map<String, Long> resultSnapshot() {
+      Map<String, Long> snapshot = new TreeMap<>();
+      for (Map.Entry<String, AtomicLong> entry : results.entrySet()) {
+        snapshot.put(entry.getKey(), entry.getValue().get());
+      }
+      return snapshot;
+    }
+  }
+
+  /**
+   * 对数-线性分桶的延迟直方图（类似HdrHistogram），单位微秒。
+   * 每个2的幂区间再线性划分为16个子桶，相对误差约6%，记录无锁。
+   */
+  static final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 覆盖到约2^36微秒，远超任何RPC超时
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int indexOf(long value) {
+      if (value < SUB_BUCKETS)
+        return (int) Math.max(value, 0);
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      int index = SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+      return Math.min(index, BUCKETS - 1);
+    }
+
+    /**
+     * 桶的代表值（区间中点）
+     */
+    static long valueOf(int index) {
+      if (index < SUB_BUCKETS)
+        return index;
+      int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+      int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+      int shift = exponent - SUB_BUCKET_BITS;
+      long lower = (long) (SUB_BUCKETS + sub) << shift;
+      return lower + ((1L << shift) >> 1);
+    }
+
+    void record(long micros) {
+      counts.incrementAndGet(indexOf(micros));
+      count.incrementAndGet();
+      sum.addAndGet(micros);
+      long current;
+      while (micros > (current = max.get())) {
+        if (max.compareAndSet(current, micros))
+          break;
+      }
+    }
+
+    long getCount() {
+      return count.get();
+    }
+
+    long getMax() {
+      return max.get();
+    }
+
+    double getMean() {
+      long n = count.get();
+      return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    long percentile(double percent) {
+      long[] snapshot = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] = counts.get(i);
+        total += snapshot[i];
+      }
+      if (total == 0)
+        return 0;
+      long rank = (long) Math.ceil(percent / 100.0 * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += snapshot[i];
+        if (seen >= rank)
+          return Math.min(valueOf(i), max.get());
+      }
+      return max.get();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.plugin;
+
+/**
+ * 按uid增删规则的通道。PluginConnection只有按包名的规则接口，每次调用都在内部查询PackageManager，
+ * 包卸载后查询失败，服务端残留的规则也就无法删除。uid由调用方通过PackageUids解析。
+ */
+interface RuleChannel {
+
+  /**
+   * @return 0表示成功
+   */
+  byte addPluginRule(int pluginId, int uid);
+
+  boolean deletePluginRule(int pluginId, int uid);
+
+  void close();
+}
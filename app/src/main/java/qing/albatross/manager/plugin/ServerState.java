@@ -0,0 +1,192 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.plugin;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 当前连接上已应用到服务端的插件注册和规则。每个连接一份，
+ * 新连接建立时服务端状态未知，需要一次全量同步后才可用于增量对比。
+ * 失效或断线前已应用的内容保留为stale，服务端可能仍持有它们，全量同步时据此只删除不再需要的插件和规则。
+ */
+final class ServerState {
+
+  /**
+   * 一次registerPlugin/modifyPlugin的参数
+   */
+  static final class Registration {
+    final String apk;
+    final String className;
+    final String params;
+    final int flags;
+
+    Registration(String apk, String className, String params, int flags) {
+      this.apk = apk;
+      this.className = className;
+      this.params = params;
+      this.flags = flags;
+    }
+
+    Registration withConfig(String className, String params, int flags) {
+      return new Registration(apk, className, params, flags);
+    }
+
+    boolean sameConfig(Registration other) {
+      return Objects.equals(className, other.className) && Objects.equals(params, other.params)
+          && flags == other.flags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Registration)) return false;
+      Registration that = (Registration) o;
+      return Objects.equals(apk, that.apk) && sameConfig(that);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(apk, className, params, flags);
+    }
+  }
+
+  private final Map<Integer, Registration> plugins = new HashMap<>();
+  private final Map<Integer, Set<String>> rules = new HashMap<>();
+  // 失效前已应用的插件及其规则，只用于全量同步时删除
+  private final Map<Integer, Set<String>> stale = new HashMap<>();
+  // 是否已经完成过全量同步，之前的状态不可信
+  private boolean known;
+
+  synchronized boolean isKnown() {
+    return known;
+  }
+
+  synchronized void markKnown() {
+    known = true;
+    stale.clear();
+  }
+
+  /**
+   * 接收上一个连接的状态作为stale，重连后服务端可能仍保留着它们
+   */
+  void inherit(ServerState previous) {
+    Map<Integer, Set<String>> retired;
+    synchronized (previous) {
+      previous.retire();
+      retired = previous.getStale();
+    }
+    synchronized (this) {
+      for (Map.Entry<Integer, Set<String>> entry : retired.entrySet()) {
+        staleTargets(entry.getKey()).addAll(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return 插件id -> 可能仍在服务端的规则，副本
+   */
+  synchronized Map<Integer, Set<String>> getStale() {
+    Map<Integer, Set<String>> copy = new HashMap<>();
+    for (Map.Entry<Integer, Set<String>> entry : stale.entrySet()) {
+      copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    }
+    return copy;
+  }
+
+  synchronized Registration getRegistration(int pluginId) {
+    return plugins.get(pluginId);
+  }
+
+  synchronized Set<Integer> getPluginIds() {
+    return new HashSet<>(plugins.keySet());
+  }
+
+  synchronized Set<String> getTargets(int pluginId) {
+    Set<String> targets = rules.get(pluginId);
+    return targets == null ? new HashSet<>() : new HashSet<>(targets);
+  }
+
+  synchronized boolean hasRule(int pluginId, String targetPkg) {
+    Set<String> targets = rules.get(pluginId);
+    return targets != null && targets.contains(targetPkg);
+  }
+
+  synchronized void putRegistration(int pluginId, Registration registration) {
+    plugins.put(pluginId, registration);
+  }
+
+  synchronized void updateConfig(int pluginId, String className, String params, int flags) {
+    Registration registration = plugins.get(pluginId);
+    if (registration != null)
+      plugins.put(pluginId, registration.withConfig(className, params, flags));
+  }
+
+  synchronized void removePlugin(int pluginId) {
+    plugins.remove(pluginId);
+    rules.remove(pluginId);
+  }
+
+  synchronized void addRule(int pluginId, String targetPkg) {
+    Set<String> targets = rules.get(pluginId);
+    if (targets == null) {
+      targets = new HashSet<>();
+      rules.put(pluginId, targets);
+    }
+    targets.add(targetPkg);
+  }
+
+  synchronized void removeRule(int pluginId, String targetPkg) {
+    Set<String> targets = rules.get(pluginId);
+    if (targets != null)
+      targets.remove(targetPkg);
+  }
+
+  synchronized boolean isRegistered(int pluginId) {
+    return plugins.containsKey(pluginId);
+  }
+
+  /**
+   * RPC结果不确定（异常、断线）时调用，下次同步重新全量对齐
+   */
+  synchronized void invalidate() {
+    retire();
+    plugins.clear();
+    rules.clear();
+    known = false;
+  }
+
+  private void retire() {
+    for (Integer pluginId : plugins.keySet()) {
+      staleTargets(pluginId);
+    }
+    for (Map.Entry<Integer, Set<String>> entry : rules.entrySet()) {
+      staleTargets(entry.getKey()).addAll(entry.getValue());
+    }
+  }
+
+  private Set<String> staleTargets(int pluginId) {
+    Set<String> targets = stale.get(pluginId);
+    if (targets == null) {
+      targets = new HashSet<>();
+      stale.put(pluginId, targets);
+    }
+    return targets;
+  }
+}
@@ -15,26 +15,20 @@
  */
 package qing.albatross.manager.utils;
 
-import static qing.albatross.manager.data.Const.ALBATROSS_PLUGIN_KEY;
-
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.pm.Signature;
 import android.os.Build;
-import android.os.Bundle;
 import android.util.Log;
 
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
+import qing.albatross.manager.data.AppCatalog;
 import qing.albatross.manager.model.AppInfo;
 import qing.albatross.manager.plugin.PluginDelegate;
 
@@ -45,40 +39,18 @@ public class AppUtils {
 
 
   /**
-   * 获取设备上所有已安装的第三方应用
+   * 获取设备上所有有桌面入口的应用，数据来自共享的应用目录
    *
    * @param context 上下文
    * @return 应用信息列表
    */
   public static List<AppInfo> getInstalledApps(Context context) {
     List<AppInfo> appList = new ArrayList<>();
-    PackageManager packageManager = context.getPackageManager();
-    List<PackageInfo> packages;
-    Intent intent = new Intent();
-    intent.setAction(Intent.ACTION_MAIN);
-    intent.addCategory(Intent.CATEGORY_LAUNCHER);
     String contextPackageName = context.getPackageName();
-    // 得到包含应用信息的列表
-    List<ResolveInfo> resolveInfos = packageManager.queryIntentActivities(intent, PackageManager.GET_META_DATA);
-    for (ResolveInfo resolveInfo : resolveInfos) {
-      ApplicationInfo applicationInfo = resolveInfo.activityInfo.applicationInfo;
-      if (applicationInfo.packageName.equals(contextPackageName))
+    for (AppCatalog.Entry entry : AppCatalog.getInstance(context).getApps(AppCatalog.Filter.LAUNCHABLE)) {
+      if (entry.packageName.equals(contextPackageName))
         continue;
-      Bundle metaData = applicationInfo.metaData;
-      boolean isPlugin = false;
-      if (metaData != null && metaData.containsKey(ALBATROSS_PLUGIN_KEY)) {
-        isPlugin = true;
-      }
-      boolean isSystem = (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-      AppInfo appInfo = new AppInfo();
-      appInfo.isSystem = isSystem;
-      appInfo.isPlugin = isPlugin;
-//      Drawable icon = resolveInfo.loadIcon(packageManager);
-//      appInfo.setAppIcon(icon);
-      String appName = resolveInfo.loadLabel(packageManager).toString();
-      appInfo.setAppName(appName);
-      appInfo.setAppIcon(packageManager.getApplicationIcon(applicationInfo));
-      appInfo.setPackageName(applicationInfo.packageName);
+      AppInfo appInfo = new AppInfo(entry);
       appList.add(appInfo);
     }
     return appList;
@@ -87,16 +59,14 @@ public class AppUtils {
 
   /**
    * 创建AppInfo对象
+   *
+   * @return 应用未安装时返回null
    */
-  public static AppInfo createAppInfo(Context context, PackageInfo packageInfo, PackageManager packageManager) {
-    AppInfo appInfo = new AppInfo();
-    ApplicationInfo applicationInfo = packageInfo.applicationInfo;
-    appInfo.setPackageName(packageInfo.packageName);
-    appInfo.setVersionName(packageInfo.versionName);
-    // 获取应用名称和图标
-    appInfo.setAppName(packageManager.getApplicationLabel(applicationInfo).toString());
-    appInfo.setAppIcon(packageManager.getApplicationIcon(applicationInfo));
-
+  public static AppInfo createAppInfo(Context context, String packageName) {
+    AppCatalog.Entry entry = AppCatalog.getInstance(context).get(packageName);
+    if (entry == null)
+      return null;
+    AppInfo appInfo = new AppInfo(entry);
     return appInfo;
   }
 
@@ -241,19 +211,8 @@ public class AppUtils {
       Log.e(TAG, "没有Root权限，无法强制停止应用");
       return false;
     }
-    try {
-      // 执行su命令强制停止应用
-      Process process = Runtime.getRuntime().exec("su");
-      DataOutputStream os = new DataOutputStream(process.getOutputStream());
-      os.writeBytes("am force-stop " + packageName + "\n");
-      os.writeBytes("exit\n");
-      os.flush();
-      int result = process.waitFor();
-      return result == 0;
-    } catch (IOException | InterruptedException e) {
-      e.printStackTrace();
-      return false;
-    }
+    // 通过root shell强制停止应用
+    return RootShell.getInstance().run("am force-stop " + packageName);
   }
 
   /**
@@ -269,19 +228,8 @@ public class AppUtils {
       Log.e(TAG, "没有Root权限，无法冻结应用");
       return false;
     }
-    try {
-      // 执行su命令冻结应用
-      Process process = Runtime.getRuntime().exec("su");
-      DataOutputStream os = new DataOutputStream(process.getOutputStream());
-      os.writeBytes("pm disable " + packageName + "\n");
-      os.writeBytes("exit\n");
-      os.flush();
-      int result = process.waitFor();
-      return result == 0;
-    } catch (IOException | InterruptedException e) {
-      e.printStackTrace();
-      return false;
-    }
+    // 通过root shell冻结应用
+    return RootShell.getInstance().run("pm disable " + packageName);
   }
 
   /**
@@ -297,36 +245,14 @@ public class AppUtils {
       Log.e(TAG, "没有Root权限，无法解冻应用");
       return false;
     }
-    try {
-      Process process = Runtime.getRuntime().exec("su");
-      DataOutputStream os = new DataOutputStream(process.getOutputStream());
-      os.writeBytes("pm enable " + packageName + "\n");
-      os.writeBytes("exit\n");
-      os.flush();
-      int result = process.waitFor();
-      return result == 0;
-    } catch (IOException | InterruptedException e) {
-      e.printStackTrace();
-      return false;
-    }
+    return RootShell.getInstance().run("pm enable " + packageName);
   }
 
   /**
    * 检查应用是否被冻结
    */
   public static boolean isAppFrozen(Context context, String packageName) {
-    try {
-      Process process = Runtime.getRuntime().exec("su");
-      DataOutputStream os = new DataOutputStream(process.getOutputStream());
-      os.writeBytes("pm list packages -d | grep " + packageName + "\n");
-      os.writeBytes("exit\n");
-      os.flush();
-      int result = process.waitFor();
-      return result == 0;
-    } catch (IOException | InterruptedException e) {
-      e.printStackTrace();
-      return false;
-    }
+    return RootShell.getInstance().run("pm list packages -d | grep " + packageName);
   }
 
 }
@@ -17,14 +17,38 @@ public class ClassLoaderUtils {
 
   public static final String TAG = "ClassLoaderUtils";
 
-  private static void expandFieldList(Object instance, String fieldName, Object[] extraElements)
+  private static void expandFieldList(Object instance, String fieldName, Object[] removedElements, Object[] extraElements)
       throws NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
     Field jlrField = findField(instance, fieldName);
     Object[] original = ((List<Object>) jlrField.get(instance)).toArray();
-    Object[] combined = (Object[]) Array.newInstance(original.getClass().getComponentType(), original.length + extraElements.length);
-    System.arraycopy(original, 0, combined, 0, original.length);
-    System.arraycopy(extraElements, 0, combined, original.length, extraElements.length);
-    jlrField.set(instance, Arrays.asList(combined));
+    jlrField.set(instance, Arrays.asList(replaceElements(original, removedElements, extraElements)));
+  }
+
+  /**
+   * 去掉original中的removedElements（按引用比较），再追加extraElements
+   */
+  private static Object[] replaceElements(Object[] original, Object[] removedElements, Object[] extraElements) {
+    List<Object> kept = new ArrayList<>(original.length);
+    for (Object element : original) {
+      if (!containsInstance(removedElements, element))
+        kept.add(element);
+    }
+    Object[] combined = (Object[]) Array.newInstance(original.getClass().getComponentType(), kept.size() + extraElements.length);
+    for (int i = 0; i < kept.size(); i++) {
+      combined[i] = kept.get(i);
+    }
+    System.arraycopy(extraElements, 0, combined, kept.size(), extraElements.length);
+    return combined;
+  }
+
+  private static boolean containsInstance(Object[] elements, Object element) {
+    if (elements == null)
+      return false;
+    for (Object e : elements) {
+      if (e == element)
+        return true;
+    }
+    return false;
   }
 
   private static Object[] makeDexElements(Object dexPathList, ArrayList<File> files, File optimizedDirectory,
@@ -39,15 +63,13 @@ public class ClassLoaderUtils {
     return (Object[]) makeDexElements.invoke(dexPathList, files, optimizedDirectory, suppressedExceptions);
   }
 
-  private static void expandFieldArray(Object instance, String fieldName,
+  private static void expandFieldArray(Object instance, String fieldName, Object[] removedElements,
                                        Object[] extraElements) throws NoSuchFieldException, IllegalArgumentException,
       IllegalAccessException {
     Field jlrField = findField(instance, fieldName);
     Object[] original = (Object[]) jlrField.get(instance);
-    Object[] combined = (Object[]) Array.newInstance(original.getClass().getComponentType(), original.length + extraElements.length);
-    System.arraycopy(original, 0, combined, 0, original.length);
-    System.arraycopy(extraElements, 0, combined, original.length, extraElements.length);
-    jlrField.set(instance, combined);
+    // 新数组构造完成后一次性写回，查找类的线程看到的要么是旧数组要么是新数组
+    jlrField.set(instance, replaceElements(original, removedElements, extraElements));
   }
 
 
@@ -92,7 +114,42 @@ public class ClassLoaderUtils {
   }
 
 
-  public static void patchClassLoader(ClassLoader loader, String sourceDir, String nativeLibraryDir) throws NoSuchFieldException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+  /**
+   * 一次patchClassLoader追加到DexPathList的元素，用于之后替换
+   */
+  public static final class Patch {
+    private final String sourceDir;
+    private final String nativeLibraryDir;
+    private final Object[] dexElements;
+    private final Object[] nativeLibraryPathElements;
+    private final File[] nativeLibraryDirectories;
+
+    Patch(String sourceDir, String nativeLibraryDir, Object[] dexElements, Object[] nativeLibraryPathElements,
+          File[] nativeLibraryDirectories) {
+      this.sourceDir = sourceDir;
+      this.nativeLibraryDir = nativeLibraryDir;
+      this.dexElements = dexElements;
+      this.nativeLibraryPathElements = nativeLibraryPathElements;
+      this.nativeLibraryDirectories = nativeLibraryDirectories;
+    }
+
+    public String getSourceDir() {
+      return sourceDir;
+    }
+
+    public String getNativeLibraryDir() {
+      return nativeLibraryDir;
+    }
+  }
+
+  public static Patch patchClassLoader(ClassLoader loader, String sourceDir, String nativeLibraryDir) throws NoSuchFieldException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+    return replacePatch(loader, null, sourceDir, nativeLibraryDir);
+  }
+
+  /**
+   * 用新的dex和so目录替换之前追加的元素，oldPatch为null时仅追加
+   */
+  public static Patch replacePatch(ClassLoader loader, Patch oldPatch, String sourceDir, String nativeLibraryDir) throws NoSuchFieldException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
     Field pathListField = findField(loader, "pathList");
     Object dexPathList = pathListField.get(loader);
     ArrayList<IOException> suppressedExceptions = new ArrayList<>();
@@ -101,32 +158,27 @@ public class ClassLoaderUtils {
     ArrayList<File> nativeLibraries = new ArrayList<>();
     File nativeLibraryFile = new File(nativeLibraryDir);
     nativeLibraries.add(nativeLibraryFile);
+    File[] nativeLibraryDirectories = new File[]{nativeLibraryFile};
+    Object[] nativeLibraryPathElements = null;
     if (Build.VERSION.SDK_INT > Build.VERSION_CODES.N_MR1) {
-      expandFieldList(dexPathList, "nativeLibraryDirectories", new File[]{nativeLibraryFile});
-      expandFieldArray(dexPathList, "nativeLibraryPathElements", makeNativeLibraryElement(dexPathList, nativeLibraries));
+      nativeLibraryPathElements = makeNativeLibraryElement(dexPathList, nativeLibraries);
     } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-      expandFieldList(dexPathList, "nativeLibraryDirectories", new File[]{nativeLibraryFile});
-      expandFieldArray(dexPathList, "nativeLibraryPathElements", makeDexElements(dexPathList, nativeLibraries, null, suppressedExceptions));
+      nativeLibraryPathElements = makeDexElements(dexPathList, nativeLibraries, null, suppressedExceptions);
+    }
+    Object[] dexElements = makeDexElements(dexPathList, files, null, suppressedExceptions);
+    Object[] oldDirectories = oldPatch == null ? null : oldPatch.nativeLibraryDirectories;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      expandFieldList(dexPathList, "nativeLibraryDirectories", oldDirectories, nativeLibraryDirectories);
+      expandFieldArray(dexPathList, "nativeLibraryPathElements", oldPatch == null ? null : oldPatch.nativeLibraryPathElements, nativeLibraryPathElements);
     } else {
-      expandFieldArray(dexPathList, "nativeLibraryDirectories", new File[]{nativeLibraryFile});
+      expandFieldArray(dexPathList, "nativeLibraryDirectories", oldDirectories, nativeLibraryDirectories);
     }
-    expandFieldArray(dexPathList, "dexElements", makeDexElements(dexPathList, files, null, suppressedExceptions));
-    if (!suppressedExceptions.isEmpty()) {
-      for (IOException e : suppressedExceptions) {
-        Log.w(TAG, "Exception in makeDexElement", e);
-      }
-      Field suppressedExceptionsField = findField(loader, "dexElementsSuppressedExceptions");
-      IOException[] dexElementsSuppressedExceptions = (IOException[]) suppressedExceptionsField.get(loader);
-      if (dexElementsSuppressedExceptions == null) {
-        dexElementsSuppressedExceptions = suppressedExceptions.toArray(new IOException[0]);
-      } else {
-        IOException[] combined = new IOException[suppressedExceptions.size() + dexElementsSuppressedExceptions.length];
-        suppressedExceptions.toArray(combined);
-        System.arraycopy(dexElementsSuppressedExceptions, 0, combined, suppressedExceptions.size(), dexElementsSuppressedExceptions.length);
-        dexElementsSuppressedExceptions = combined;
-      }
-      suppressedExceptionsField.set(loader, dexElementsSuppressedExceptions);
+    expandFieldArray(dexPathList, "dexElements", oldPatch == null ? null : oldPatch.dexElements, dexElements);
+    // 只记录日志，不追加到ClassLoader的dexElementsSuppressedExceptions，多次替换时不会累积
+    for (IOException e : suppressedExceptions) {
+      Log.w(TAG, "Exception in makeDexElement", e);
     }
+    return new Patch(sourceDir, nativeLibraryDir, dexElements, nativeLibraryPathElements, nativeLibraryDirectories);
   }
 
 }
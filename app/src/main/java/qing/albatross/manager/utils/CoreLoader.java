@@ -0,0 +1,76 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.utils;
+
+import android.util.Log;
+
+import qing.albatross.core.Albatross;
+
+/**
+ * 进程内核心加载守卫：记录已注入ClassLoader的agent dex和so目录，以及已加载的so。
+ * 重复检查时不再追加DexPathList元素和重复loadLibrary。so加载之前切换服务版本时替换dex而不是叠加；
+ * so已加载后无法卸载，保留旧dex以免新dex中的类绑定到不匹配的so，只标记需要重启。
+ */
+public final class CoreLoader {
+
+  private static final String TAG = "CoreLoader";
+
+  private static ClassLoaderUtils.Patch patch;
+  private static String loadedLibrary;
+  private static boolean restartRequired;
+
+  private CoreLoader() {
+  }
+
+  /**
+   * 注入agent dex并加载核心so，已经加载过相同文件时直接返回
+   *
+   * @param libPath so的完整路径，如/data/.../libalbatross.so
+   * @return 核心是否可用
+   */
+  public static synchronized boolean load(ClassLoader loader, String dexPath, String libPath) throws Exception {
+    int i = libPath.lastIndexOf('/');
+    String libDir = libPath.substring(0, i);
+    String libName = libPath.substring(i + 4, libPath.length() - 3);
+    if (loadedLibrary != null) {
+      restartRequired = !loadedLibrary.equals(libPath);
+      if (restartRequired)
+        Log.w(TAG, "核心so已加载: " + loadedLibrary + "，新版本需要重启后生效: " + libPath);
+      return true;
+    }
+    if (patch == null || !patch.getSourceDir().equals(dexPath) || !patch.getNativeLibraryDir().equals(libDir)) {
+      try (StartupTracer.Span ignored = StartupTracer.span("patchClassLoader")) {
+        if (patch != null)
+          Log.i(TAG, "替换核心路径: " + patch.getSourceDir() + " -> " + dexPath);
+        patch = ClassLoaderUtils.replacePatch(loader, patch, dexPath, libDir);
+      }
+    }
+    boolean loaded;
+    try (StartupTracer.Span ignored = StartupTracer.span("loadLibrary")) {
+      loaded = Albatross.loadLibrary(libName, 0);
+    }
+    if (loaded)
+      loadedLibrary = libPath;
+    return loaded;
+  }
+
+  /**
+   * 切换了服务版本但旧版本so仍在进程中
+   */
+  public static synchronized boolean isRestartRequired() {
+    return restartRequired;
+  }
+}
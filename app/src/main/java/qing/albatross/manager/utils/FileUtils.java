@@ -27,6 +27,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -82,6 +84,32 @@ public class FileUtils {
     }
   }
 
+  /**
+   * 计算文件的SHA-256，返回小写十六进制字符串，失败时返回null
+   */
+  public static String sha256(File file) {
+    if (!file.exists() || !file.isFile()) {
+      Log.e(TAG, "源文件不存在或不是文件: " + file.getAbsolutePath());
+      return null;
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int length;
+      while ((length = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, length);
+      }
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (IOException | NoSuchAlgorithmException e) {
+      Log.e(TAG, "计算文件哈希失败: " + e.getMessage(), e);
+      return null;
+    }
+  }
+
   /**
    * 设置文件可执行权限
    */
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.utils;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import qing.albatross.manager.data.AppCatalog;
+import qing.albatross.manager.model.AppInfo;
+
+/**
+ * 应用图标异步加载：按ImageView的像素尺寸渲染成位图，内存中保留有上限的LRU缓存，
+ * 并在cacheDir中缓存渲染结果，磁盘缓存按字节预算LRU裁剪。列表项回收或重新绑定时取消未完成的加载。
+ * load和cancel只能在主线程调用。
+ */
+public final class IconLoader {
+
+  private static final String TAG = "IconLoader";
+  private static final String DISK_CACHE_DIR = "icons";
+  private static final long DISK_CACHE_BYTES = 16L * 1024 * 1024;
+  // 无法获取控件尺寸时使用的默认尺寸
+  private static final int DEFAULT_SIZE_DP = 48;
+
+  private static IconLoader instance;
+
+  private final PackageManager packageManager;
+  private final File diskCacheDir;
+  private final int defaultSize;
+  private final LruCache<String, Bitmap> memoryCache;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final ExecutorService decoder = Executors.newFixedThreadPool(2, r -> {
+    Thread thread = new Thread(r, "icon-loader");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // 每个ImageView当前的加载任务，只在主线程访问
+  private final WeakHashMap<ImageView, Request> pending = new WeakHashMap<>();
+
+  private static final class Request {
+    final String key;
+    Future<?> future;
+
+    Request(String key) {
+      this.key = key;
+    }
+  }
+
+  private IconLoader(Context context) {
+    packageManager = context.getPackageManager();
+    diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+    defaultSize = Math.round(DEFAULT_SIZE_DP * context.getResources().getDisplayMetrics().density);
+    // 内存预算为最大堆的1/16
+    int budget = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+    memoryCache = new LruCache<String, Bitmap>(budget) {
+      @Override
+      protected int sizeOf(String key, Bitmap value) {
+        return value.getByteCount();
+      }
+    };
+  }
+
+  public static synchronized IconLoader getInstance(Context context) {
+    if (instance == null) {
+      instance = new IconLoader(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * 为列表项绑定应用图标，缓存命中时同步设置，否则先清空再异步加载
+   */
+  public void load(ImageView imageView, AppInfo app) {
+    AppCatalog.Entry entry = app.getEntry();
+    load(imageView, app.getPackageName(), entry != null ? entry.lastUpdateTime : 0);
+  }
+
+  /**
+   * @param version 应用更新后图标可能变化，用lastUpdateTime区分磁盘缓存，为0时在后台查询
+   */
+  public void load(ImageView imageView, String packageName, long version) {
+    int size = targetSize(imageView);
+    String key = packageName + "_" + version + "_" + size;
+    Request current = pending.get(imageView);
+    if (current != null) {
+      if (current.key.equals(key))
+        return;
+      cancel(imageView);
+    }
+    Bitmap cached = memoryCache.get(key);
+    if (cached != null) {
+      imageView.setImageBitmap(cached);
+      return;
+    }
+    imageView.setImageDrawable(null);
+    Request request = new Request(key);
+    pending.put(imageView, request);
+    request.future = decoder.submit(() -> {
+      Bitmap bitmap = decode(packageName, version, key, size);
+      handler.post(() -> {
+        if (pending.get(imageView) != request)
+          return;
+        pending.remove(imageView);
+        if (bitmap != null)
+          imageView.setImageBitmap(bitmap);
+        else
+          imageView.setImageDrawable(packageManager.getDefaultActivityIcon());
+      });
+    });
+  }
+
+  /**
+   * 取消ImageView上未完成的加载，在onViewRecycled中调用
+   */
+  public void cancel(ImageView imageView) {
+    Request request = pending.remove(imageView);
+    if (request != null && request.future != null)
+      request.future.cancel(true);
+  }
+
+  private int targetSize(ImageView imageView) {
+    if (imageView.getWidth() > 0)
+      return imageView.getWidth();
+    ViewGroup.LayoutParams params = imageView.getLayoutParams();
+    if (params != null && params.width > 0)
+      return params.width;
+    return defaultSize;
+  }
+
+  private Bitmap decode(String packageName, long version, String key, int size) {
+    if (version == 0) {
+      // 没有目录条目时查询真实的lastUpdateTime，保证应用更新后磁盘缓存失效
+      try {
+        version = packageManager.getPackageInfo(packageName, 0).lastUpdateTime;
+      } catch (PackageManager.NameNotFoundException e) {
+        return null;
+      }
+    }
+    // 包名不含'-'，用它分隔，删除旧版本时按前缀匹配不会误伤其它包
+    String prefix = packageName + "-";
+    String versionPrefix = prefix + version + "-";
+    File file = new File(diskCacheDir, versionPrefix + size + ".png");
+    Bitmap bitmap = null;
+    if (file.exists()) {
+      bitmap = BitmapFactory.decodeFile(file.getPath());
+      if (bitmap != null)
+        file.setLastModified(System.currentTimeMillis());
+    }
+    if (bitmap == null) {
+      Drawable drawable;
+      try {
+        drawable = packageManager.getApplicationIcon(packageName);
+      } catch (PackageManager.NameNotFoundException e) {
+        return null;
+      }
+      if (Thread.currentThread().isInterrupted())
+        return null;
+      // 直接按目标尺寸绘制，不保留原始分辨率的图标
+      bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+      Canvas canvas = new Canvas(bitmap);
+      drawable.setBounds(0, 0, size, size);
+      drawable.draw(canvas);
+      writeDiskCache(file, bitmap, prefix, versionPrefix);
+    }
+    memoryCache.put(key, bitmap);
+    return bitmap;
+  }
+
+  private void writeDiskCache(File file, Bitmap bitmap, String prefix, String versionPrefix) {
+    if (!diskCacheDir.exists() && !diskCacheDir.mkdirs())
+      return;
+    File tmp = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmp)) {
+      bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+    } catch (IOException e) {
+      Log.w(TAG, "写入图标缓存失败: " + e.getMessage());
+      tmp.delete();
+      return;
+    }
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      return;
+    }
+    trimDiskCache(prefix, versionPrefix);
+  }
+
+  /**
+   * 删除该包旧版本的图标，总大小超过预算时按最后访问时间从旧到新删除
+   */
+  private synchronized void trimDiskCache(String prefix, String versionPrefix) {
+    File[] files = diskCacheDir.listFiles();
+    if (files == null)
+      return;
+    List<File> kept = new ArrayList<>(files.length);
+    long total = 0;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.startsWith(prefix) && !name.startsWith(versionPrefix)) {
+        file.delete();
+        continue;
+      }
+      kept.add(file);
+      total += file.length();
+    }
+    if (total <= DISK_CACHE_BYTES)
+      return;
+    kept.sort(Comparator.comparingLong(File::lastModified));
+    for (File file : kept) {
+      if (total <= DISK_CACHE_BYTES)
+        break;
+      long length = file.length();
+      if (file.delete())
+        total -= length;
+    }
+  }
+}
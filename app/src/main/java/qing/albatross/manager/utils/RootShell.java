@@ -0,0 +1,324 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.utils;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import qing.albatross.app.agent.client.ShellExecResult;
+import qing.albatross.manager.data.ConfigManager;
+
+/**
+ * 常驻的root shell池：复用少量交互式su会话执行命令，避免每次操作都重新fork su进程。
+ * 每条命令在子shell中执行，并用唯一标记分隔输出，从而拿到各自的stdout、stderr和退出码。
+ */
+public class RootShell {
+
+  private static final String TAG = "RootShell";
+  // 同时保持的su会话数量上限
+  static final int POOL_SIZE = 2;
+  static final long DEFAULT_TIMEOUT_MS = 30000;
+  // 等待空闲会话时的重新检查间隔，其他线程丢弃失效会话后可以及时补建
+  private static final long SLOT_RECHECK_MS = 100;
+  // 读线程遇到EOF时放入队列的标记，按引用比较
+  private static final String EOF = new String("<eof>");
+
+  private static RootShell instance;
+
+  private final BlockingQueue<Session> idleSessions = new LinkedBlockingQueue<>();
+  private final AtomicLong commandSeq = new AtomicLong();
+  private int sessionCount;
+  // close()时递增，旧代的会话不再放回池中
+  private volatile int generation;
+
+  private RootShell() {
+  }
+
+  public static synchronized RootShell getInstance() {
+    if (instance == null) {
+      instance = new RootShell();
+    }
+    return instance;
+  }
+
+  /**
+   * 以root身份执行命令
+   *
+   * @return 执行结果，无法获取root会话或超时返回null
+   */
+  public ShellExecResult exec(String command) {
+    return exec(command, DEFAULT_TIMEOUT_MS);
+  }
+
+  public ShellExecResult exec(String command, long timeoutMs) {
+    // 会话在写入命令前就已失效时换一个会话重试一次
+    for (int retry = 0; retry < 2; retry++) {
+      Session session;
+      try {
+        session = acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      if (session == null)
+        return null;
+      try {
+        session.write(command, nextMarker());
+      } catch (IOException e) {
+        Log.w(TAG, "su会话已失效，重新创建: " + e.getMessage());
+        discard(session);
+        continue;
+      }
+      ShellExecResult result;
+      try {
+        result = session.read(timeoutMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result = null;
+      }
+      if (result == null) {
+        // 超时或会话退出后无法确认会话状态，直接丢弃
+        discard(session);
+      } else {
+        release(session);
+      }
+      return result;
+    }
+    return null;
+  }
+
+  /**
+   * 执行命令并返回是否成功（退出码为0）
+   */
+  public boolean run(String command) {
+    ShellExecResult result = exec(command);
+    return result != null && result.exitCode == 0;
+  }
+
+  /**
+   * 关闭所有空闲会话，正在执行的会话归还时也会被关闭。su路径变化后调用，后续命令使用新的su重建会话
+   */
+  public void close() {
+    synchronized (this) {
+      generation++;
+    }
+    Session session;
+    while ((session = idleSessions.poll()) != null) {
+      discard(session);
+    }
+  }
+
+  private String nextMarker() {
+    return "__ALBATROSS_" + System.nanoTime() + "_" + commandSeq.incrementAndGet() + "__";
+  }
+
+  private Session acquire() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + DEFAULT_TIMEOUT_MS;
+    while (true) {
+      Session session = idleSessions.poll();
+      if (session != null) {
+        if (isUsable(session))
+          return session;
+        discard(session);
+        continue;
+      }
+      synchronized (this) {
+        if (sessionCount < POOL_SIZE) {
+          sessionCount++;
+          session = Session.start();
+          if (session == null) {
+            sessionCount--;
+            return null;
+          }
+          session.generation = generation;
+          return session;
+        }
+      }
+      long remain = deadline - System.currentTimeMillis();
+      if (remain <= 0) {
+        Log.e(TAG, "等待su会话超时");
+        return null;
+      }
+      // 会话被丢弃时不会归还到队列，短暂等待后回到循环开头重新检查会话数量
+      session = idleSessions.poll(Math.min(remain, SLOT_RECHECK_MS), TimeUnit.MILLISECONDS);
+      if (session == null)
+        continue;
+      if (isUsable(session))
+        return session;
+      discard(session);
+    }
+  }
+
+  /**
+   * 会话仍存活且由当前的su创建
+   */
+  private boolean isUsable(Session session) {
+    return session.generation == generation && session.isAlive();
+  }
+
+  private void release(Session session) {
+    if (isUsable(session)) {
+      idleSessions.offer(session);
+    } else {
+      discard(session);
+    }
+  }
+
+  private void discard(Session session) {
+    session.destroy();
+    synchronized (this) {
+      sessionCount--;
+    }
+  }
+
+  /**
+   * 单个交互式su会话
+   */
+  private static class Session {
+    private final Process process;
+    private final OutputStream stdin;
+    private final BlockingQueue<String> stdoutLines = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> stderrLines = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+    private String marker;
+    // 创建时RootShell的代数
+    int generation;
+
+    private Session(Process process) {
+      this.process = process;
+      this.stdin = process.getOutputStream();
+      startReader(process.getInputStream(), stdoutLines, "RootShell-stdout");
+      startReader(process.getErrorStream(), stderrLines, "RootShell-stderr");
+    }
+
+    static Session start() {
+      String suPath = ConfigManager.getInstance(null).getSuFilePath();
+      try {
+        Process process = Runtime.getRuntime().exec(suPath != null ? suPath : "su");
+        return new Session(process);
+      } catch (IOException e) {
+        Log.e(TAG, "启动su会话失败: " + e.getMessage());
+        return null;
+      }
+    }
+
+    private void startReader(InputStream in, BlockingQueue<String> lines, String name) {
+      Thread thread = new Thread(() -> {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            lines.offer(line);
+          }
+        } catch (IOException e) {
+          Log.d(TAG, "su会话输出读取结束: " + e.getMessage());
+        }
+        closed = true;
+        lines.offer(EOF);
+      }, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    boolean isAlive() {
+      if (closed)
+        return false;
+      try {
+        process.exitValue();
+        return false;
+      } catch (IllegalThreadStateException e) {
+        return true;
+      }
+    }
+
+    void write(String command, String marker) throws IOException {
+      this.marker = marker;
+      // 子shell隔离命令中的export/cd/exit，stdin重定向避免命令读取到后续输入
+      String framed = "(\n" + command + "\n) </dev/null\n" +
+          "echo \"" + marker + "$?\"\n" +
+          "echo \"" + marker + "\" >&2\n";
+      stdin.write(framed.getBytes(StandardCharsets.UTF_8));
+      stdin.flush();
+    }
+
+    /**
+     * 读取到分隔标记为止，返回null表示超时或会话已退出
+     */
+    ShellExecResult read(long timeoutMs) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMs;
+      StringBuilder stdout = new StringBuilder();
+      String exitLine = readUntilMarker(stdoutLines, stdout, deadline);
+      if (exitLine == null)
+        return null;
+      StringBuilder stderr = new StringBuilder();
+      if (readUntilMarker(stderrLines, stderr, deadline) == null)
+        return null;
+      int exitCode;
+      try {
+        exitCode = Integer.parseInt(exitLine.trim());
+      } catch (NumberFormatException e) {
+        exitCode = -1;
+      }
+      return new ShellExecResult(exitCode, stdout.toString(), stderr.toString());
+    }
+
+    /**
+     * @return 标记之后的内容（stdout中即为退出码）
+     */
+    private String readUntilMarker(BlockingQueue<String> lines, StringBuilder out, long deadline) throws InterruptedException {
+      while (true) {
+        long remain = deadline - System.currentTimeMillis();
+        if (remain <= 0)
+          return null;
+        String line = lines.poll(remain, TimeUnit.MILLISECONDS);
+        if (line == null || line == EOF)
+          return null;
+        int index = line.indexOf(marker);
+        if (index >= 0) {
+          // 命令输出末尾没有换行时，标记会和最后一段输出在同一行
+          if (index > 0)
+            appendLine(out, line.substring(0, index));
+          return line.substring(index + marker.length());
+        }
+        appendLine(out, line);
+      }
+    }
+
+    private static void appendLine(StringBuilder out, String line) {
+      if (out.length() > 0)
+        out.append('\n');
+      out.append(line);
+    }
+
+    void destroy() {
+      closed = true;
+      try {
+        stdin.close();
+      } catch (IOException ignored) {
+      }
+      process.destroy();
+    }
+  }
+}
@@ -22,9 +22,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-
-import qing.albatross.manager.data.ConfigManager;
 
 public class SELinuxManager {
 
@@ -143,40 +140,7 @@ public class SELinuxManager {
    * @return 操作是否成功
    */
   private static boolean setSELinuxStatus(boolean enable) {
-    Process process = null;
-    OutputStream outputStream = null;
-    InputStream inputStream = null;
-
-    try {
-      // 执行su命令获取root权限
-      process = Runtime.getRuntime().exec(ConfigManager.getInstance(null).getSuFilePath());
-      outputStream = process.getOutputStream();
-      // 发送设置SELinux状态的命令
-      String command = "setenforce " + (enable ? "1" : "0") + "\n";
-      outputStream.write(command.getBytes());
-      outputStream.flush();
-
-      // 发送退出命令
-      outputStream.write("exit\n".getBytes());
-      outputStream.flush();
-
-      // 等待命令执行完成
-      int result = process.waitFor();
-
-      // 检查命令执行结果，0表示成功
-      return result == 0;
-
-    } catch (Exception e) {
-      e.printStackTrace();
-      return false;
-    } finally {
-      try {
-        if (outputStream != null) outputStream.close();
-        if (inputStream != null) inputStream.close();
-        if (process != null) process.destroy();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
+    // 通过常驻root shell设置SELinux状态，退出码0表示成功
+    return RootShell.getInstance().run("setenforce " + (enable ? "1" : "0"));
   }
 }
@@ -19,21 +19,26 @@ package qing.albatross.manager.utils;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import qing.albatross.app.agent.client.ShellExecResult;
 import qing.albatross.manager.R;
 import qing.albatross.manager.data.ConfigManager;
 import qing.albatross.manager.data.ServerDatabaseHelper;
 import qing.albatross.manager.plugin.PluginDelegate;
+import qing.albatross.manager.model.DeployArtifact;
 import qing.albatross.manager.model.ServerInfo;
 
 public class ServerManager {
@@ -43,8 +48,11 @@ public class ServerManager {
   private final Context context;
   //  private final FileStorageManager fileStorage;
   private final ConfigManager configManager;
-  private Process serverProcess;
   private boolean isServerRunning = false;
+  // 复制失败时输出到stdout的标记，出现时不写入部署清单
+  private static final String DEPLOY_FAILED_MARK = "deploy_failed:";
+  // 复制成功时输出的标记，没有文件被复制时不重写部署清单
+  private static final String DEPLOY_COPIED_MARK = "deploy_copied:";
 
   private final ServerDatabaseHelper dbHelper;
 
@@ -64,34 +72,58 @@ public class ServerManager {
 
 
   /**
-   * 构建服务启动命令
+   * 一次部署的命令和待写入清单的文件，部署成功后才写入数据库
    */
-  private List<String> buildStartCommands(ServerInfo serverInfo, String rootPath, boolean launch) {
-    List<String> commands = new ArrayList<>();
-    // 创建服务运行目录
-    commands.add("mkdir -p " + rootPath);
-    // 复制服务文件到目标路径
-//    String serverFileName = "albatross_server";
+  private static final class DeployPlan {
+    final List<String> commands = new ArrayList<>();
+    final List<DeployArtifact> recordable = new ArrayList<>();
+  }
+
+  /**
+   * 构建服务启动命令，只复制内容与部署清单不一致的文件
+   */
+  private DeployPlan buildStartCommands(ServerInfo serverInfo, String rootPath, boolean launch) {
+    DeployPlan plan = new DeployPlan();
+    List<String> commands = plan.commands;
+    // 需要部署到rootPath下的服务文件
     String libFileName = "libalbatross_base.so";
-    String serverPath = serverInfo.getServerPath();
     String serverFileDst = rootPath + "albatross_server";
-    commands.add("cp " + serverPath + " " + serverFileDst);
     String agentPath = serverInfo.getAgentPath();
-    commands.add("cp " + serverInfo.getLibPath() + " " + rootPath + libFileName);
+    List<DeployArtifact> artifacts = new ArrayList<>();
+    artifacts.add(new DeployArtifact(serverInfo.getServerPath(), serverFileDst, "755"));
+    artifacts.add(new DeployArtifact(serverInfo.getLibPath(), rootPath + libFileName, "644"));
     // 如果有32位库文件，也进行复制
     if (serverInfo.isSupport32Bit() && serverInfo.getLib32Path() != null) {
-      commands.add("mkdir -p " + rootPath + "32bit/");
-      commands.add("cp " + serverInfo.getLib32Path() + " " + rootPath + "32bit/" + libFileName);
+      artifacts.add(new DeployArtifact(serverInfo.getLib32Path(), rootPath + "32bit/" + libFileName, "644"));
     }
-    String appAgentPath = rootPath + "app_agent.dex";
-    String systemAgent = rootPath + "system_server.dex";
-    commands.add("cp " + agentPath + "/app_agent.dex " + appAgentPath);
-    commands.add("cp " + agentPath + "/system_server.dex " + systemAgent);
-    commands.add("chmod 444 " + appAgentPath);
-    commands.add("chmod 444 " + systemAgent);
-    // 设置文件权限
-    commands.add("chmod 755 " + serverFileDst);
-    commands.add("chmod 644 " + rootPath + libFileName);
+    artifacts.add(new DeployArtifact(agentPath + "/app_agent.dex", rootPath + "app_agent.dex", "444"));
+    artifacts.add(new DeployArtifact(agentPath + "/system_server.dex", rootPath + "system_server.dex", "444"));
+    Map<String, DeployArtifact> deployed = dbHelper.getDeployManifest();
+    Set<String> createdDirs = new HashSet<>();
+    int skipped = 0;
+    for (DeployArtifact artifact : artifacts) {
+      artifact.setVersion(serverInfo.getVersion());
+      String dst = artifact.getTargetPath();
+      String dir = dst.substring(0, dst.lastIndexOf('/') + 1);
+      // cp -p保留源文件的修改时间，之后只需比较目标文件的大小和修改时间
+      String copy = "{ cp -p " + artifact.getSourcePath() + " " + dst + " && chmod " + artifact.getMode() + " " + dst +
+          " && echo " + DEPLOY_COPIED_MARK + dst + "; } || echo " + DEPLOY_FAILED_MARK + dst;
+      if (isDeployed(artifact, deployed.get(dst))) {
+        // 源文件未变化，只用stat比较目标文件的大小和修改时间，被删除或替换时才补拷，不在设备上计算哈希
+        commands.add("if [ \"$(stat -c '%s %Y' " + dst + " 2>/dev/null)\" != \"" + artifact.getSize() + " " +
+            artifact.getMtime() / 1000 + "\" ]; then mkdir -p " + dir + "; " + copy + "; fi");
+        skipped++;
+      } else {
+        if (createdDirs.add(dir)) {
+          commands.add("mkdir -p " + dir);
+        }
+        commands.add(copy);
+      }
+      if (artifact.getSha256() != null) {
+        plan.recordable.add(artifact);
+      }
+    }
+    Log.i(TAG, "部署文件 " + artifacts.size() + " 个，跳过未变化的 " + skipped + " 个");
     String SERVER_ADDRESS = ConfigManager.getInstance(context).getServerAddress();
     if (launch) {
       // 设置LD_LIBRARY_PATH，确保能找到库文件
@@ -101,8 +133,38 @@ public class ServerManager {
     } else {
       commands.add("echo success");
     }
-    commands.add("exit");
-    return commands;
+    return plan;
+  }
+
+  /**
+   * 计算源文件指纹并与清单记录比较。源文件大小和修改时间都没变时直接复用记录中的哈希，避免重复读取
+   */
+  private boolean isDeployed(DeployArtifact artifact, DeployArtifact record) {
+    File source = new File(artifact.getSourcePath());
+    artifact.setSize(source.length());
+    artifact.setMtime(source.lastModified());
+    if (record != null && artifact.getSourcePath().equals(record.getSourcePath())
+        && artifact.getSize() == record.getSize() && artifact.getMtime() == record.getMtime()) {
+      artifact.setSha256(record.getSha256());
+    } else {
+      artifact.setSha256(FileUtils.sha256(source));
+    }
+    return record != null && artifact.getSha256() != null
+        && artifact.getSha256().equals(record.getSha256())
+        && artifact.getMode().equals(record.getMode());
+  }
+
+  /**
+   * 所有复制都成功时写入清单，否则保留旧清单，下次启动重新校验。没有文件被复制时清单不变，不再写入
+   */
+  private void commitDeploy(DeployPlan plan, ShellExecResult result) {
+    if (result.stdout.contains(DEPLOY_FAILED_MARK)) {
+      Log.w(TAG, "部分文件复制失败，不更新部署清单: " + result.stdout.trim());
+      return;
+    }
+    if (!plan.recordable.isEmpty() && result.stdout.contains(DEPLOY_COPIED_MARK)) {
+      dbHelper.saveDeployManifest(plan.recordable);
+    }
   }
 
   /**
@@ -118,7 +180,6 @@ public class ServerManager {
       showToast(context.getString(R.string.server_no_root));
       return false;
     }
-    String suPath = configManager.getSuFilePath();
     // 获取当前选中的服务版本信息
     ServerInfo currentServer = dbHelper.getCurrentServerInfo();
     if (currentServer == null) {
@@ -128,27 +189,32 @@ public class ServerManager {
     }
     // 获取Root路径配置
     String rootPath = dbHelper.getRootPath();
-    Process suProcess = null;
+    StartupTracer.begin("server_start");
     try {
-      List<String> commands = buildStartCommands(currentServer, rootPath, true);
-      // 使用交互式SU启动服务
-      suProcess = Runtime.getRuntime().exec(suPath);
-      DataOutputStream outputStream = new DataOutputStream(suProcess.getOutputStream());
-      // 执行所有命令
-      for (String cmd : commands) {
-        outputStream.writeBytes(cmd + "\n");
-        outputStream.flush();
+      ShellExecResult result;
+      DeployPlan plan;
+      try (StartupTracer.Span ignored = StartupTracer.span("deploy")) {
+        plan = buildStartCommands(currentServer, rootPath, true);
+        // 通过常驻root shell部署并启动服务
+        result = RootShell.getInstance().exec(TextUtils.join("\n", plan.commands));
+      }
+      if (result == null) {
+        Log.e(TAG, "无法获取root shell，服务启动失败");
+        showToast(context.getString(R.string.server_start_failed));
+        return false;
       }
-      for (int i = 0; i < 2; i++) {
-        Thread.sleep(10000);
-        if (PluginDelegate.checkIsRunning(dbHelper, context))
-          break;
+      if (!result.stderr.isEmpty()) {
+        Log.w(TAG, "部署输出: " + result.stderr);
+      }
+      ServerReadinessProbe probe = new ServerReadinessProbe(context, dbHelper, configManager.getServerReadyTimeout());
+      try (StartupTracer.Span ignored = StartupTracer.span("awaitReady")) {
+        probe.await();
       }
       isServerRunning = checkServerRunning();
       if (isServerRunning) {
-        Log.i(TAG, "服务启动成功，版本: " + currentServer.getVersion());
+        commitDeploy(plan, result);
+        Log.i(TAG, "服务启动成功，版本: " + currentServer.getVersion() + "，就绪耗时: " + probe.getTimeToReadyMs() + "ms");
         showToast(context.getString(R.string.server_start_success));
-        serverProcess = suProcess;
         return true;
       } else {
         Log.e(TAG, "服务启动失败，无法验证运行状态");
@@ -158,10 +224,9 @@ public class ServerManager {
     } catch (Throwable e) {
       Log.e(TAG, "服务启动异常: " + e.getMessage(), e);
       showToast(context.getString(R.string.server_start_exception_format, e.getMessage()));
-      if (suProcess != null) {
-        startOutputReaders(suProcess);
-      }
       return false;
+    } finally {
+      StartupTracer.end(context);
     }
   }
 
@@ -172,7 +237,6 @@ public class ServerManager {
       showToast(context.getString(R.string.server_no_root));
       return false;
     }
-    String suPath = configManager.getSuFilePath();
     // 获取当前选中的服务版本信息
     ServerInfo currentServer = dbHelper.getCurrentServerInfo();
     if (currentServer == null) {
@@ -183,22 +247,11 @@ public class ServerManager {
     // 获取Root路径配置
     String rootPath = dbHelper.getRootPath();
     try {
-      List<String> commands = buildStartCommands(currentServer, rootPath, false);
-      // 使用交互式SU启动服务
-      Process suProcess = Runtime.getRuntime().exec(suPath);
-      DataOutputStream outputStream = new DataOutputStream(suProcess.getOutputStream());
-      // 执行所有命令
-      for (String cmd : commands) {
-        outputStream.writeBytes(cmd + "\n");
-        outputStream.flush();
-      }
-      int code = suProcess.waitFor();
-      try (BufferedReader reader = new BufferedReader(new InputStreamReader(suProcess.getInputStream()))) {
-        String bytesRead;
-        while ((bytesRead = reader.readLine()) != null) {
-          if (bytesRead.contains("success"))
-            return true;
-        }
+      DeployPlan plan = buildStartCommands(currentServer, rootPath, false);
+      ShellExecResult result = RootShell.getInstance().exec(TextUtils.join("\n", plan.commands));
+      if (result != null && result.stdout.contains("success")) {
+        commitDeploy(plan, result);
+        return !result.stdout.contains(DEPLOY_FAILED_MARK);
       }
       return false;
     } catch (Throwable e) {
@@ -239,63 +292,27 @@ public class ServerManager {
       Log.i(TAG, "服务未在运行");
       return true;
     }
-    try {
-      if (PluginDelegate.stopServer())
-        return true;
-      // 查找并杀死服务进程
-      Process process = Runtime.getRuntime().exec(configManager.getSuFilePath() + " -c kill $(pidof albatross_server)");
-      int result = process.waitFor();
-      if (result == 0) {
-        isServerRunning = false;
-        if (serverProcess != null) {
-          serverProcess.destroy();
-          serverProcess = null;
-        }
-        Log.i(TAG, "服务已停止");
-        showToast(context.getString(R.string.server_stopped));
-        return true;
-      } else {
-        Log.e(TAG, "停止服务器命令执行失败，返回码: " + result);
-        return false;
-      }
-    } catch (IOException | InterruptedException e) {
-      Log.e(TAG, "停止服务器异常: " + e.getMessage(), e);
+    if (PluginDelegate.stopServer())
+      return true;
+    // 查找并杀死服务进程
+    ShellExecResult result = RootShell.getInstance().exec("kill $(pidof albatross_server)");
+    if (result == null) {
+      Log.e(TAG, "停止服务器异常: 无法获取root shell");
       showToast(context.getString(R.string.server_stop_error));
       return false;
     }
+    if (result.exitCode == 0) {
+      isServerRunning = false;
+      Log.i(TAG, "服务已停止");
+      showToast(context.getString(R.string.server_stopped));
+      return true;
+    } else {
+      Log.e(TAG, "停止服务器命令执行失败，返回码: " + result.exitCode);
+      return false;
+    }
   }
 
 
-  /**
-   * 读取进程输出的线程
-   */
-  private void startOutputReaders(Process process) {
-    // 读取标准输出
-    new Thread(() -> {
-      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          Log.d(TAG, "Server输出: " + line);
-          // 可以在这里处理服务器输出
-        }
-      } catch (IOException e) {
-        Log.e(TAG, "读取Server输出失败: " + e.getMessage());
-      }
-    }).start();
-    // 读取错误输出
-    new Thread(() -> {
-      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          Log.e(TAG, "Server错误: " + line);
-          // 可以在这里处理服务器错误
-        }
-      } catch (IOException e) {
-        Log.e(TAG, "读取Server错误输出失败: " + e.getMessage());
-      }
-    }).start();
-  }
-
   /**
    * 检查设备是否已root
    */
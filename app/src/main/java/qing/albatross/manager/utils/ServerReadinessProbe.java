@@ -0,0 +1,85 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.utils;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import qing.albatross.manager.data.ConfigManager;
+import qing.albatross.manager.data.ServerDatabaseHelper;
+import qing.albatross.manager.plugin.PluginDelegate;
+
+/**
+ * 服务就绪探测：以指数退避反复尝试连接服务的unix socket，
+ * 连接成功（PluginConnection.create返回非空）即视为就绪，不再固定等待。
+ */
+public class ServerReadinessProbe {
+
+  private static final String TAG = "ServerReadinessProbe";
+
+  // 首次探测前的等待时间，服务进程fork后通常需要几十毫秒才开始监听
+  static final long INITIAL_DELAY_MS = 50;
+  // 单次退避的上限
+  static final long MAX_DELAY_MS = 1000;
+
+  private final Context context;
+  private final ServerDatabaseHelper dbHelper;
+  private final long deadlineMs;
+  private long timeToReadyMs = -1;
+
+  public ServerReadinessProbe(Context context, ServerDatabaseHelper dbHelper, long deadlineMs) {
+    this.context = context;
+    this.dbHelper = dbHelper;
+    this.deadlineMs = deadlineMs;
+  }
+
+  /**
+   * 阻塞等待服务就绪，直到连接成功或超过截止时间
+   *
+   * @return 是否在截止时间内就绪
+   */
+  public boolean await() throws InterruptedException {
+    long start = SystemClock.elapsedRealtime();
+    long deadline = start + deadlineMs;
+    long delay = INITIAL_DELAY_MS;
+    int attempts = 0;
+    while (true) {
+      long now = SystemClock.elapsedRealtime();
+      long remain = deadline - now;
+      if (remain <= 0)
+        break;
+      Thread.sleep(Math.min(delay, remain));
+      attempts++;
+      if (PluginDelegate.checkIsRunning(dbHelper, context)) {
+        timeToReadyMs = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "服务就绪，耗时 " + timeToReadyMs + "ms，探测次数 " + attempts);
+        ConfigManager.getInstance(context).saveLastServerReady(timeToReadyMs, attempts);
+        return true;
+      }
+      delay = Math.min(delay * 2, MAX_DELAY_MS);
+    }
+    Log.e(TAG, "服务在 " + deadlineMs + "ms 内未就绪，探测次数 " + attempts);
+    return false;
+  }
+
+  /**
+   * 最近一次探测测得的就绪耗时，未就绪时返回-1
+   */
+  public long getTimeToReadyMs() {
+    return timeToReadyMs;
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2025 QingWan (qingwanmail@foxmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package qing.albatross.manager.utils;
+
+import android.content.Context;
+import android.os.Trace;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * 启动时间线：记录核心检查、ClassLoader修补、loadLibrary、连接、同步等阶段的耗时，
+ * 同时输出android.os.Trace区段以便在Perfetto中查看。最近的若干条时间线保存在filesDir中。
+ * 时间线属于调用begin的线程，其他线程的span不会记录进来，除非任务经由wrap显式携带该时间线。
+ */
+public final class StartupTracer {
+
+  private static final String TAG = "StartupTracer";
+  // 保存的时间线条数
+  static final int MAX_TIMELINES = 10;
+  private static final String FILE_NAME = "startup_timelines.json";
+  // Trace区段名长度上限
+  private static final int MAX_SECTION_LENGTH = 127;
+
+  private static final ThreadLocal<Timeline> active = new ThreadLocal<>();
+  private static final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private StartupTracer() {
+  }
+
+  /**
+   * 在当前线程开始一条新的时间线，之后该线程创建的span都记录到其中
+   */
+  public static void begin(String name) {
+    active.set(new Timeline(name));
+  }
+
+  /**
+   * 创建一个阶段，配合try-with-resources使用，必须在同一线程关闭。
+   * 当前线程没有进行中的时间线时只输出Trace区段
+   */
+  public static Span span(String name) {
+    return new Span(name, active.get());
+  }
+
+  /**
+   * 让task在其他线程执行时也记录到当前线程的时间线，层级接在当前span之下。
+   * 当前线程没有时间线时原样返回
+   */
+  public static <T> Callable<T> wrap(Callable<T> task) {
+    Timeline timeline = active.get();
+    if (timeline == null)
+      return task;
+    int baseLevel = depth.get()[0];
+    return () -> {
+      Timeline previous = active.get();
+      int[] current = depth.get();
+      int previousLevel = current[0];
+      active.set(timeline);
+      current[0] = baseLevel;
+      try {
+        return task.call();
+      } finally {
+        current[0] = previousLevel;
+        if (previous != null)
+          active.set(previous);
+        else
+          active.remove();
+      }
+    };
+  }
+
+  /**
+   * 结束当前线程的时间线并保存
+   */
+  public static void end(Context context) {
+    Timeline timeline = active.get();
+    active.remove();
+    if (timeline == null)
+      return;
+    try {
+      JSONObject json = timeline.toJson();
+      Log.i(TAG, timeline.name + " 总耗时 " + json.getDouble("total_ms") + "ms");
+      save(context, json);
+    } catch (JSONException | IOException e) {
+      Log.e(TAG, "保存启动时间线失败: " + e.getMessage());
+    }
+  }
+
+  /**
+   * 读取保存的时间线，最新的在最后
+   */
+  public static synchronized JSONArray load(Context context) {
+    File file = new File(context.getFilesDir(), FILE_NAME);
+    if (!file.exists())
+      return new JSONArray();
+    String content = FileUtils.readFileToString(file);
+    if (content == null)
+      return new JSONArray();
+    try {
+      return new JSONArray(content);
+    } catch (JSONException e) {
+      return new JSONArray();
+    }
+  }
+
+  private static synchronized void save(Context context, JSONObject timeline) throws IOException, JSONException {
+    JSONArray saved = load(context);
+    JSONArray trimmed = new JSONArray();
+    int from = Math.max(0, saved.length() + 1 - MAX_TIMELINES);
+    for (int i = from; i < saved.length(); i++) {
+      trimmed.put(saved.get(i));
+    }
+    trimmed.put(timeline);
+    File file = new File(context.getFilesDir(), FILE_NAME);
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(trimmed.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * 最近一条时间线的文本摘要，没有记录时返回null
+   */
+  public static String summary(Context context) {
+    JSONArray saved = load(context);
+    if (saved.length() == 0)
+      return null;
+    JSONObject last = saved.optJSONObject(saved.length() - 1);
+    if (last == null)
+      return null;
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format(Locale.US, "%s %s total=%.1fms\n", last.optString("name"),
+        FileUtils.formatDate(last.optLong("time")), last.optDouble("total_ms")));
+    JSONArray spans = last.optJSONArray("spans");
+    if (spans != null) {
+      for (int i = 0; i < spans.length(); i++) {
+        JSONObject span = spans.optJSONObject(i);
+        if (span == null)
+          continue;
+        for (int d = 0; d <= span.optInt("depth"); d++) {
+          sb.append("  ");
+        }
+        sb.append(String.format(Locale.US, "%s +%.1fms %.1fms\n", span.optString("name"),
+            span.optDouble("offset_ms"), span.optDouble("duration_ms")));
+      }
+    }
+    return sb.toString();
+  }
+
+  public static final class Span implements AutoCloseable {
+    private final String name;
+    private final Timeline timeline;
+    private final long startNanos;
+    private final int level;
+    private boolean closed;
+
+    private Span(String name, Timeline timeline) {
+      this.name = name;
+      this.timeline = timeline;
+      String section = "albatross:" + name;
+      Trace.beginSection(section.length() > MAX_SECTION_LENGTH ? section.substring(0, MAX_SECTION_LENGTH) : section);
+      int[] current = depth.get();
+      this.level = current[0]++;
+      this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void close() {
+      if (closed)
+        return;
+      closed = true;
+      long endNanos = System.nanoTime();
+      depth.get()[0]--;
+      Trace.endSection();
+      if (timeline != null)
+        timeline.add(name, level, startNanos, endNanos);
+    }
+  }
+
+  private static final class Timeline {
+    final String name;
+    final long wallTime = System.currentTimeMillis();
+    final long startNanos = System.nanoTime();
+    final List<Object[]> spans = new ArrayList<>();
+
+    Timeline(String name) {
+      this.name = name;
+    }
+
+    synchronized void add(String spanName, int level, long spanStart, long spanEnd) {
+      spans.add(new Object[]{spanName, level, spanStart, spanEnd});
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+      JSONObject json = new JSONObject();
+      json.put("name", name);
+      json.put("time", wallTime);
+      json.put("total_ms", (System.nanoTime() - startNanos) / 1e6);
+      // span在关闭时加入，按开始时间排序后父阶段排在子阶段前面
+      List<Object[]> sorted = new ArrayList<>(spans);
+      sorted.sort((a, b) -> Long.compare((long) a[2], (long) b[2]));
+      JSONArray array = new JSONArray();
+      for (Object[] span : sorted) {
+        JSONObject item = new JSONObject();
+        item.put("name", span[0]);
+        item.put("depth", span[1]);
+        item.put("offset_ms", ((long) span[2] - startNanos) / 1e6);
+        item.put("duration_ms", ((long) span[3] - (long) span[2]) / 1e6);
+        array.put(item);
+      }
+      json.put("spans", array);
+      return json;
+    }
+  }
+}